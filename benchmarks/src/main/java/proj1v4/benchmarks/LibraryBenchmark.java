@@ -0,0 +1,144 @@
+package proj1v4.benchmarks;
+
+/**
+ *
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.
+ */
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import src.proj1v4.Catalog;
+import src.proj1v4.Library;
+import src.proj1v4.MemberList;
+
+/**
+ * Measures the core operations of the library: searching the catalog and the
+ * member list, issuing, renewing and returning books, placing and processing
+ * holds, and listing the books that are checked out.
+ * 
+ * The library and its collections are singletons, so each fork fills one
+ * library of the size given by the parameters and keeps it for all its
+ * iterations. A tenth of the books are checked out. Operations that change
+ * the library are measured in pairs that undo each other, issue with return
+ * and placing a hold with processing it, so that the library stays the same
+ * size however many times they run.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class LibraryBenchmark {
+	private static final int CHOICES = 1 << 16;
+	@Param({ "10000", "100000", "1000000" })
+	public int books;
+	@Param({ "100000" })
+	public int members;
+	private Library library;
+	private Population population;
+	private String[] searchedBooks = new String[CHOICES];
+	private String[] searchedMembers = new String[CHOICES];
+	private String[][] loans = new String[CHOICES][];
+	private String[][] borrowed = new String[CHOICES][];
+	private String[] holders = new String[CHOICES];
+	private int next;
+
+	/**
+	 * Fills the library and picks the books and members the operations are
+	 * run on
+	 */
+	@Setup(Level.Trial)
+	public void populate() {
+		Random random = new Random(Population.SEED);
+		library = Library.instance();
+		population = new Population(library, books, members, random);
+		for (int index = 0; index < CHOICES; index++) {
+			searchedBooks[index] = population.bookIds[random.nextInt(books)];
+			searchedMembers[index] = population.memberIds[random.nextInt(members)];
+			String book = (String) population.available.get(random.nextInt(population.available.size()));
+			loans[index] = new String[] { book, population.memberIds[random.nextInt(members)] };
+			borrowed[index] = (String[]) population.issued.get(random.nextInt(population.issued.size()));
+			do {
+				holders[index] = population.memberIds[random.nextInt(members)];
+			} while (holders[index].equals(borrowed[index][1]));
+		}
+	}
+
+	/*
+	 * Returns the position of the next choice to use
+	 */
+	private int next() {
+		next = (next + 1) & (CHOICES - 1);
+		return next;
+	}
+
+	@Benchmark
+	public void catalogSearch(Blackhole blackhole) {
+		blackhole.consume(Catalog.instance().search(searchedBooks[next()]));
+	}
+
+	@Benchmark
+	public void memberListSearch(Blackhole blackhole) {
+		blackhole.consume(MemberList.instance().search(searchedMembers[next()]));
+	}
+
+	@Benchmark
+	public void issueAndReturnBook(Blackhole blackhole) {
+		String[] loan = loans[next()];
+		blackhole.consume(library.issueBook(loan[1], loan[0]));
+		blackhole.consume(library.returnBook(loan[0]));
+	}
+
+	@Benchmark
+	public void renewBook(Blackhole blackhole) {
+		String[] loan = borrowed[next()];
+		blackhole.consume(library.renewBook(loan[0], loan[1]));
+	}
+
+	@Benchmark
+	public void placeAndProcessHold(Blackhole blackhole) {
+		int choice = next();
+		String bookId = borrowed[choice][0];
+		blackhole.consume(library.placeHold(holders[choice], bookId, 7));
+		blackhole.consume(library.processHold(bookId));
+	}
+
+	@Benchmark
+	public void checkedOutList(Blackhole blackhole) {
+		for (Iterator iterator = Catalog.instance().checkedOutList(); iterator.hasNext();) {
+			blackhole.consume(iterator.next());
+		}
+	}
+}
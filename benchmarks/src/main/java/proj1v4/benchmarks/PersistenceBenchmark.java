@@ -0,0 +1,140 @@
+package proj1v4.benchmarks;
+
+/**
+ *
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.
+ */
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import src.proj1v4.Library;
+
+/**
+ * Measures saving the library with Library.save and reading it back with
+ * Library.retrieve. The files are written to the temporary directory and
+ * deleted afterwards, never to the LibraryData file in the working
+ * directory.
+ * 
+ * The library can only be retrieved into a JVM that has no library yet, so
+ * each fork of the retrieve benchmark has the file written by a separate JVM
+ * first (see main) and then retrieves it once.
+ *
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PersistenceBenchmark {
+
+	/**
+	 * A filled library and the file it is saved to
+	 */
+	@State(Scope.Benchmark)
+	public static class Saved {
+		@Param({ "10000", "100000", "1000000" })
+		public int books;
+		@Param({ "100000" })
+		public int members;
+		private File file;
+
+		@Setup(Level.Trial)
+		public void populate() throws IOException {
+			new Population(Library.instance(), books, members, new Random(Population.SEED));
+			file = File.createTempFile("LibraryData", ".benchmark");
+		}
+
+		@TearDown(Level.Trial)
+		public void delete() {
+			file.delete();
+		}
+	}
+
+	/**
+	 * A file written by another JVM, to be retrieved
+	 */
+	@State(Scope.Benchmark)
+	public static class Written {
+		@Param({ "10000", "100000", "1000000" })
+		public int books;
+		@Param({ "100000" })
+		public int members;
+		private File file;
+
+		@Setup(Level.Trial)
+		public void write() throws IOException, InterruptedException {
+			file = File.createTempFile("LibraryData", ".benchmark");
+			String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+			Process process = new ProcessBuilder(java, "-Xmx4g", "-cp", System.getProperty("java.class.path"),
+					PersistenceBenchmark.class.getName(), file.getPath(), String.valueOf(books),
+					String.valueOf(members)).inheritIO().start();
+			if (process.waitFor() != 0) {
+				throw new IOException("The library could not be written");
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void delete() {
+			file.delete();
+		}
+	}
+
+	@Benchmark
+	@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+	@Warmup(iterations = 2)
+	@Measurement(iterations = 5)
+	public boolean save(Saved saved) {
+		return Library.save(saved.file.getPath());
+	}
+
+	@Benchmark
+	@Fork(value = 3, jvmArgsAppend = "-Xmx4g")
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 1)
+	public Library retrieve(Written written) {
+		return Library.retrieve(written.file.getPath());
+	}
+
+	/**
+	 * Writes the file for the retrieve benchmark
+	 * 
+	 * @param args
+	 *            the name of the file, the number of books and the number of
+	 *            members
+	 */
+	public static void main(String[] args) {
+		new Population(Library.instance(), Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+				new Random(Population.SEED));
+		if (!Library.save(args[0])) {
+			System.exit(1);
+		}
+	}
+}
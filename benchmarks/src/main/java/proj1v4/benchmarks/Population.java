@@ -0,0 +1,75 @@
+package proj1v4.benchmarks;
+
+/**
+ *
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import src.proj1v4.Library;
+
+/**
+ * Fills the library with a given number of books and members, and issues a
+ * tenth of the books to random members. Shared by the benchmarks and by the
+ * helper that writes the files the retrieve benchmark reads.
+ *
+ */
+final class Population {
+	static final long SEED = 42;
+	final String[] bookIds;
+	final String[] memberIds;
+	final List issued = new ArrayList();
+	final List available = new ArrayList();
+
+	/**
+	 * Fills the library
+	 * 
+	 * @param library
+	 *            the library, which should be empty
+	 * @param books
+	 *            number of books
+	 * @param members
+	 *            number of members
+	 * @param random
+	 *            source of the choices of books and members
+	 */
+	Population(Library library, int books, int members, Random random) {
+		bookIds = new String[books];
+		for (int index = 0; index < books; index++) {
+			bookIds[index] = "B" + index;
+			library.addBook("Title " + (index % 5000), "Author " + (index % 2000), bookIds[index]);
+		}
+		memberIds = new String[members];
+		for (int index = 0; index < members; index++) {
+			memberIds[index] = library.addMember("Member " + index, "Address " + index, "Phone " + index).getId();
+		}
+		List shuffled = new ArrayList(Arrays.asList(bookIds));
+		Collections.shuffle(shuffled, random);
+		int checkedOut = books / 10;
+		for (int index = 0; index < checkedOut; index++) {
+			String memberId = memberIds[random.nextInt(members)];
+			library.issueBook(memberId, (String) shuffled.get(index));
+			issued.add(new String[] { (String) shuffled.get(index), memberId });
+		}
+		available.addAll(shuffled.subList(checkedOut, books));
+	}
+}
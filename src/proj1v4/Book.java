@@ -21,6 +21,8 @@ package src.proj1v4;
 import java.util.*;
 import java.lang.*;
 import java.io.*;
+import java.time.Instant;
+import java.time.ZoneId;
 /**
  * Represents a single book
  * @author Brahma Dathan and Sarnath Ramnath
@@ -28,12 +30,27 @@ import java.io.*;
  */
 public class Book implements Serializable {
   private static final long serialVersionUID = 1L;
+  /*
+   * The due date is kept in milliseconds but written as the Calendar it
+   * used to be, so saved libraries stay readable
+   */
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("title", String.class),
+    new ObjectStreamField("author", String.class),
+    new ObjectStreamField("id", String.class),
+    new ObjectStreamField("borrowedBy", Member.class),
+    new ObjectStreamField("holds", List.class),
+    new ObjectStreamField("dueDate", Calendar.class)
+  };
   private String title;
   private String author;
   private String id;
   private Member borrowedBy;
-  private List holds = new LinkedList();
-  private Calendar dueDate;
+  private List holds;
+  private long dueTime;
+  private transient Map holdQueue = new LinkedHashMap();
+  private transient int ordinal = -1;
+  private transient String summary;
   /**
    * Creates a book with the given id, title, and author name
    * @param title book title
@@ -52,11 +69,23 @@ public class Book implements Serializable {
    */
   public boolean issue(Member member) {
     borrowedBy = member;
-    dueDate = new GregorianCalendar();
-    dueDate.setTimeInMillis(System.currentTimeMillis());
-    dueDate.add(Calendar.MONTH, 1);
+    dueTime = Instant.ofEpochMilli(Library.currentTime()).atZone(ZoneId.systemDefault())
+        .plusMonths(1).toInstant().toEpochMilli();
+    forgetSummary();
+    Catalog.instance().updateStatus(this);
     return true;
   }
+  /**
+   * Restores the loan state of the book from saved data
+   * @param member the borrower
+   * @param dueTime the due date in milliseconds
+   */
+  void restoreLoan(Member member, long dueTime) {
+    borrowedBy = member;
+    this.dueTime = dueTime;
+    forgetSummary();
+    Catalog.instance().updateStatus(this);
+  }
   /**
    * Marks the book as returned
    * @return The member who had borrowed the book
@@ -67,6 +96,8 @@ public class Book implements Serializable {
     } else {
       Member borrower = borrowedBy;
       borrowedBy = null;
+      forgetSummary();
+      Catalog.instance().updateStatus(this);
       return borrower;
     }
   }
@@ -79,7 +110,7 @@ public class Book implements Serializable {
     if (hasHold()) {
       return false;
     }
-    if ((member.getId()).equals(borrowedBy.getId())) {
+    if (borrowedBy != null && (member.getId()).equals(borrowedBy.getId())) {
       return (issue(member));
     }
     return false;
@@ -89,7 +120,11 @@ public class Book implements Serializable {
    * @param hold the new hold on the book
    */
   public void placeHold(Hold hold) {
-    holds.add(hold);
+    Hold replaced = (Hold) holdQueue().put(hold.getMember().getId(), hold);
+    if (replaced != null) {
+      replaced.markRemoved();
+    }
+    Catalog.instance().updateStatus(this);
   }
   /**
    * Removes hold for a specific member
@@ -97,47 +132,147 @@ public class Book implements Serializable {
    * @return true iff the hold could be removed
    */
   public boolean removeHold(String memberId) {
-    for (ListIterator iterator = holds.listIterator(); iterator.hasNext(); ) {
-      Hold hold = (Hold) iterator.next();
-      String id = hold.getMember().getId();
-      if (id.equals(memberId)) {
-        iterator.remove();
-        return true;
-      }
+    Hold hold = (Hold) holdQueue().remove(memberId);
+    if (hold != null) {
+      hold.markRemoved();
+      Catalog.instance().updateStatus(this);
+      return true;
+    }
+    return false;
+  }
+  /**
+   * Removes a specific hold, if the book still has it
+   * @param hold the hold to be removed
+   * @return true iff the hold could be removed
+   */
+  public boolean removeHold(Hold hold) {
+    String memberId = hold.getMember().getId();
+    if (holdQueue().get(memberId) == hold) {
+      return removeHold(memberId);
     }
     return false;
   }
+  /**
+   * Returns the hold a member has on the book
+   * @param memberId id of the member
+   * @return the hold, or null if the member has no hold on the book
+   */
+  Hold getHold(String memberId) {
+    return (Hold) holdQueue().get(memberId);
+  }
   /**
    * Returns a valid hold
    * @return the next valid hold
    */
   public Hold getNextHold() {
-    for (ListIterator iterator = holds.listIterator(); iterator.hasNext(); ) {
+    for (Iterator iterator = holdQueue().values().iterator(); iterator.hasNext(); ) {
       Hold hold = (Hold) iterator.next();
       iterator.remove();
+      hold.markRemoved();
+      if (hold.isValid()) {
+        Catalog.instance().updateStatus(this);
+        return hold;
+      }
+    }
+    Catalog.instance().updateStatus(this);
+    return null;
+  }
+  /**
+   * Returns the hold getNextHold would return, without removing anything
+   * @return the next valid hold, or null if there is none
+   */
+  Hold peekNextHold() {
+    for (Iterator iterator = holdQueue().values().iterator(); iterator.hasNext(); ) {
+      Hold hold = (Hold) iterator.next();
       if (hold.isValid()) {
         return hold;
       }
     }
     return null;
   }
+  /**
+   * Removes the holds ahead of a given hold and the hold itself, as
+   * getNextHold does when it returns that hold
+   * @param last the last hold to be removed
+   */
+  void removeHoldsThrough(Hold last) {
+    for (Iterator iterator = holdQueue().values().iterator(); iterator.hasNext(); ) {
+      Hold hold = (Hold) iterator.next();
+      iterator.remove();
+      hold.markRemoved();
+      if (hold == last) {
+        break;
+      }
+    }
+    Catalog.instance().updateStatus(this);
+  }
   /**
    * Checks whether there is a hold on this book
    * @return true iff there is a hold
    */
   public boolean hasHold() {
-    ListIterator iterator = holds.listIterator();
-    if (iterator.hasNext()) {
-      return true;
-    }
-    return false;
+    return !holdQueue().isEmpty();
   }
   /**
    * Returns an iterator for the holds
    * @return iterator for the holds on the book
    */
   public Iterator getHolds() {
-    return holds.iterator();
+    return holdQueue().values().iterator();
+  }
+  /*
+   * The holds in the order they were placed, keyed by member id. A member
+   * has at most one hold on the book; placing another replaces the old one
+   * and keeps its place in the queue. After deserialization the queue is
+   * built from the serialized list on first use, when the members are
+   * guaranteed to be fully read.
+   */
+  private Map holdQueue() {
+    if (holdQueue == null) {
+      holdQueue = new LinkedHashMap();
+      if (holds != null) {
+        for (Iterator iterator = holds.iterator(); iterator.hasNext(); ) {
+          Hold hold = (Hold) iterator.next();
+          holdQueue.put(hold.getMember().getId(), hold);
+        }
+        holds = null;
+      }
+    }
+    return holdQueue;
+  }
+  /*
+   * Supports serialization. The holds are written as a list.
+   * @param output the stream to be written to
+   */
+  private void writeObject(ObjectOutputStream output) throws IOException {
+    ObjectOutputStream.PutField fields = output.putFields();
+    fields.put("title", title);
+    fields.put("author", author);
+    fields.put("id", id);
+    fields.put("borrowedBy", borrowedBy);
+    fields.put("holds", new LinkedList(holdQueue().values()));
+    Calendar dueDate = null;
+    if (dueTime != 0) {
+      dueDate = new GregorianCalendar();
+      dueDate.setTimeInMillis(dueTime);
+    }
+    fields.put("dueDate", dueDate);
+    output.writeFields();
+  }
+  /*
+   * Supports serialization. The holds are kept as a list until the queue
+   * is first used.
+   * @param input the stream to be read from
+   */
+  private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = input.readFields();
+    title = StringPool.instance().intern((String) fields.get("title", null));
+    author = StringPool.instance().intern((String) fields.get("author", null));
+    id = (String) fields.get("id", null);
+    borrowedBy = (Member) fields.get("borrowedBy", null);
+    holds = (List) fields.get("holds", null);
+    Calendar dueDate = (Calendar) fields.get("dueDate", null);
+    dueTime = dueDate == null ? 0 : dueDate.getTimeInMillis();
   }
   /**
    * Getter for author
@@ -167,18 +302,73 @@ public class Book implements Serializable {
   public Member getBorrower() {
     return borrowedBy;
   }
+  /**
+   * Getter for the position of the book in the catalog's status sets
+   * @return the ordinal, or -1 if the book is not in the catalog
+   */
+  int getOrdinal() {
+    return ordinal;
+  }
+  /**
+   * Setter for the position of the book in the catalog's status sets
+   * @param ordinal the new ordinal
+   */
+  void setOrdinal(int ordinal) {
+    this.ordinal = ordinal;
+  }
+  /**
+   * Getter for the due date in milliseconds
+   * @return the due date, or 0 if the book was never issued
+   */
+  long getDueTime() {
+    return dueTime;
+  }
   /**
    * Getter for due date
    * @return the date on which the book is due
    */
   public String getDueDate() {
-      return (dueDate.getTime().toString());
+      return (new Date(dueTime).toString());
+  }
+  /**
+   * Drops the cached string form; called after the borrower changes
+   */
+  synchronized void forgetSummary() {
+    summary = null;
+  }
+  /**
+   * Writes the string form of the book to a writer. Unlike toString, this
+   * does not keep the string, so dumping the whole catalog does not leave a
+   * string behind for every book.
+   * @param output the writer
+   * @throws IOException if the writer fails
+   */
+  public void dump(Writer output) throws IOException {
+    String cached;
+    Member borrower;
+    synchronized (this) {
+      cached = summary;
+      borrower = borrowedBy;
+    }
+    if (cached != null) {
+      output.write(cached);
+      return;
+    }
+    output.write("title " + title + " author " + author + " id " + id + " borrowed by ");
+    output.write(borrower == null ? "null" : "Member name " + borrower.getName() + " id " + borrower.getId());
   }
   /** 
-   * String form of the book
+   * String form of the book. The borrower is shown by name and id only, so
+   * the string stays short however long the borrower's history is, and it is
+   * kept until the borrower changes.
   * 
   */
-  public String toString() {
-    return "title " + title + " author " + author + " id " + id + " borrowed by " + borrowedBy;
+  public synchronized String toString() {
+    if (summary == null) {
+      Member borrower = borrowedBy;
+      summary = "title " + title + " author " + author + " id " + id + " borrowed by "
+          + (borrower == null ? null : "Member name " + borrower.getName() + " id " + borrower.getId());
+    }
+    return summary;
   }
 }
\ No newline at end of file
@@ -0,0 +1,251 @@
+package src.proj1v4;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+/**
+ *
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.
+ */
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Reads books from a CSV or TSV file for Library.importBooks, and collects
+ * the outcome of the import. Each row holds the title, the author and the id
+ * of a book, in that order, like Library.addBook. A first row reading
+ * title, author, id is taken as a header and skipped. In CSV files a field
+ * may be enclosed in double quotes, with a doubled quote standing for a
+ * quote inside the field.
+ *
+ */
+public class BookImport {
+	public static final int MAX_REJECTS_KEPT = 1000;
+	private BufferedReader input;
+	private char separator;
+	private int line;
+	private int added;
+	private int duplicates;
+	private int rejected;
+	private List rejects = new ArrayList();
+
+	/**
+	 * Prepares an import from a reader
+	 * 
+	 * @param input
+	 *            the rows to be imported
+	 * @param separator
+	 *            the field separator, ',' for CSV or '\t' for TSV
+	 */
+	public BookImport(Reader input, char separator) {
+		this.input = input instanceof BufferedReader ? (BufferedReader) input : new BufferedReader(input, 1 << 16);
+		this.separator = separator;
+	}
+
+	/**
+	 * Reads the next rows of the file. Rows that cannot be parsed are
+	 * rejected and not returned.
+	 * 
+	 * @param size
+	 *            the largest number of rows to be returned
+	 * @return the title, author and id of each row; empty at the end of the
+	 *         file
+	 * @throws IOException
+	 *             if the file could not be read
+	 */
+	List readBatch(int size) throws IOException {
+		List batch = new ArrayList(size);
+		String text;
+		while (batch.size() < size && (text = input.readLine()) != null) {
+			line++;
+			if (text.trim().length() == 0) {
+				continue;
+			}
+			List fields = split(text);
+			if (fields == null) {
+				reject("unbalanced quotes");
+				continue;
+			}
+			if (fields.size() != 3) {
+				reject("expected 3 fields, found " + fields.size());
+				continue;
+			}
+			String title = ((String) fields.get(0)).trim();
+			String author = ((String) fields.get(1)).trim();
+			String id = ((String) fields.get(2)).trim();
+			if (line == 1 && title.equalsIgnoreCase("title") && author.equalsIgnoreCase("author")
+					&& id.equalsIgnoreCase("id")) {
+				continue;
+			}
+			if (id.length() == 0) {
+				reject("no id");
+				continue;
+			}
+			batch.add(new String[] { title, author, id, String.valueOf(line) });
+		}
+		return batch;
+	}
+
+	/*
+	 * Splits a row into fields; returns null if a quoted field is not closed
+	 */
+	private List split(String text) {
+		List fields = new ArrayList(3);
+		int length = text.length();
+		int position = 0;
+		while (true) {
+			if (separator != '\t' && position < length && text.charAt(position) == '"') {
+				StringBuilder field = new StringBuilder();
+				position++;
+				while (true) {
+					int quote = text.indexOf('"', position);
+					if (quote < 0) {
+						return null;
+					}
+					field.append(text, position, quote);
+					if (quote + 1 < length && text.charAt(quote + 1) == '"') {
+						field.append('"');
+						position = quote + 2;
+					} else {
+						position = quote + 1;
+						break;
+					}
+				}
+				int end = text.indexOf(separator, position);
+				field.append(text, position, end < 0 ? length : end);
+				fields.add(field.toString());
+				if (end < 0) {
+					return fields;
+				}
+				position = end + 1;
+			} else {
+				int end = text.indexOf(separator, position);
+				if (end < 0) {
+					fields.add(text.substring(position));
+					return fields;
+				}
+				fields.add(text.substring(position, end));
+				position = end + 1;
+			}
+		}
+	}
+
+	/**
+	 * Records that a book was added
+	 */
+	void added() {
+		added++;
+	}
+
+	/**
+	 * Records that a book was not added because its id is already in use
+	 * 
+	 * @param row
+	 *            the row of the book, as returned by readBatch
+	 */
+	void duplicate(String[] row) {
+		duplicates++;
+		keep(row[3], "duplicate id " + row[2]);
+	}
+
+	/**
+	 * Records that a book was not added because it could not be journaled
+	 * 
+	 * @param row
+	 *            the row of the book, as returned by readBatch
+	 */
+	void failed(String[] row) {
+		rejected++;
+		keep(row[3], "not journaled");
+	}
+
+	/*
+	 * Records a row that could not be parsed
+	 */
+	private void reject(String reason) {
+		rejected++;
+		keep(String.valueOf(line), reason);
+	}
+
+	/*
+	 * Keeps the description of a rejected row, up to MAX_REJECTS_KEPT of them
+	 */
+	private void keep(String row, String reason) {
+		if (rejects.size() < MAX_REJECTS_KEPT) {
+			rejects.add("line " + row + ": " + reason);
+		}
+	}
+
+	/**
+	 * Closes the file
+	 * 
+	 * @throws IOException
+	 *             if the file could not be closed
+	 */
+	void close() throws IOException {
+		input.close();
+	}
+
+	/**
+	 * Returns the number of books added
+	 * 
+	 * @return number of books
+	 */
+	public int getAdded() {
+		return added;
+	}
+
+	/**
+	 * Returns the number of rows whose id was already in the catalog or
+	 * earlier in the file
+	 * 
+	 * @return number of rows
+	 */
+	public int getDuplicates() {
+		return duplicates;
+	}
+
+	/**
+	 * Returns the number of rows that could not be parsed
+	 * 
+	 * @return number of rows
+	 */
+	public int getRejected() {
+		return rejected;
+	}
+
+	/**
+	 * Returns descriptions of the duplicate and rejected rows, for at most
+	 * MAX_REJECTS_KEPT rows
+	 * 
+	 * @return iterator over the descriptions
+	 */
+	public Iterator getRejects() {
+		return rejects.iterator();
+	}
+
+	/**
+	 * String form of the outcome
+	 * 
+	 */
+	@Override
+	public String toString() {
+		return "Books added " + added + " duplicates " + duplicates + " rejected " + rejected;
+	}
+}
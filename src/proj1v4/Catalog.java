@@ -20,10 +20,21 @@ package src.proj1v4;
  * and are not responsible for any loss or damage resulting from its use.  
  */
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The collection class for Book objects
@@ -33,7 +44,19 @@ import java.util.List;
  */
 public class Catalog implements Serializable {
 	private static final long serialVersionUID = 1L;
-	private List books = new LinkedList();
+	static final int DUMP_CHUNK = 1024;
+	private static final char PAGE_TOKEN = 'B';
+	private static final ObjectStreamField[] serialPersistentFields = {
+			new ObjectStreamField("books", List.class) };
+	private transient Map bookIndex = new ConcurrentHashMap();
+	private transient List slots = new ArrayList();
+	private transient BitSet checkedOut = new BitSet();
+	private transient BitSet notCheckedOut = new BitSet();
+	private transient BitSet removable = new BitSet();
+	private transient BitSet hasHold = new BitSet();
+	private transient TextIndex textIndex = new TextIndex();
+	private transient TitleIndex titleIndex = new TitleIndex();
+	private transient volatile LibraryStore store;
 	private static Catalog catalog;
 
 	/*
@@ -48,7 +71,7 @@ public class Catalog implements Serializable {
 	 * 
 	 * @return the singleton object
 	 */
-	public static Catalog instance() {
+	public static synchronized Catalog instance() {
 		if (catalog == null) {
 			return (catalog = new Catalog());
 		} else {
@@ -65,13 +88,16 @@ public class Catalog implements Serializable {
 	 * 
 	 */
 	public Book search(String bookId) {
-		for (Iterator iterator = books.iterator(); iterator.hasNext();) {
-			Book book = (Book) iterator.next();
-			if (book.getId().equals(bookId)) {
-				return book;
-			}
+		if (bookId == null) {
+			return null;
 		}
-		return null;
+		LibraryStore current = store;
+		if (current != null) {
+			// goes through the store so that a book another thread is still
+			// loading is not seen half filled in
+			return current.loadBook(bookId);
+		}
+		return (Book) bookIndex.get(bookId);
 	}
 
 	/**
@@ -81,12 +107,21 @@ public class Catalog implements Serializable {
 	 *            book id
 	 * @return true iff book could be removed
 	 */
-	public boolean removeBook(String bookId) {
-		Book book = search(bookId);
+	public synchronized boolean removeBook(String bookId) {
+		Book book = (Book) bookIndex.remove(bookId);
 		if (book == null) {
 			return false;
 		} else {
-			return books.remove(book);
+			int ordinal = book.getOrdinal();
+			slots.set(ordinal, null);
+			checkedOut.clear(ordinal);
+			notCheckedOut.clear(ordinal);
+			removable.clear(ordinal);
+			hasHold.clear(ordinal);
+			textIndex.remove(book);
+			book.setOrdinal(-1);
+			titleIndex.remove();
+			return true;
 		}
 	}
 
@@ -95,11 +130,250 @@ public class Catalog implements Serializable {
 	 * 
 	 * @param book
 	 *            the book to be inserted
-	 * @return true iff the book could be inserted. Currently always true
+	 * @return true iff the book could be inserted, false if a book with the
+	 *         same id is already in the catalog
 	 */
 	public boolean insertBook(Book book) {
-		books.add(book);
-		return true;
+		if (store != null && search(book.getId()) != null) {
+			return false;
+		}
+		synchronized (this) {
+			if (bookIndex.putIfAbsent(book.getId(), book) != null) {
+				return false;
+			}
+			addSlot(book);
+			return true;
+		}
+	}
+
+	/**
+	 * Inserts a batch of books, taking the catalog lock once for the whole
+	 * batch
+	 * 
+	 * @param batch
+	 *            the books to be inserted
+	 * @return the books that were not inserted because a book with the same
+	 *         id is already in the catalog or earlier in the batch
+	 */
+	public List insertBooks(List batch) {
+		List duplicates = new ArrayList();
+		List fresh = new ArrayList(batch.size());
+		for (Iterator iterator = batch.iterator(); iterator.hasNext();) {
+			Book book = (Book) iterator.next();
+			if (store != null && search(book.getId()) != null) {
+				duplicates.add(book);
+			} else {
+				fresh.add(book);
+			}
+		}
+		synchronized (this) {
+			((ArrayList) slots).ensureCapacity(slots.size() + fresh.size());
+			for (Iterator iterator = fresh.iterator(); iterator.hasNext();) {
+				Book book = (Book) iterator.next();
+				if (bookIndex.putIfAbsent(book.getId(), book) != null) {
+					duplicates.add(book);
+				} else {
+					addSlot(book);
+				}
+			}
+		}
+		return duplicates;
+	}
+
+	/**
+	 * Finds the books whose title or author contains any of the given words,
+	 * ignoring case. Books containing more of the words, rarer words, or the
+	 * words in the title rather than in the author come first.
+	 * 
+	 * @param query
+	 *            the words to look for
+	 * @param limit
+	 *            the largest number of books to be returned
+	 * @return iterator to the best matching books, best first
+	 */
+	public Iterator find(String query, int limit) {
+		loadAll();
+		int[] ordinals = textIndex.search(query, limit);
+		List found = new ArrayList(ordinals.length);
+		synchronized (this) {
+			for (int index = 0; index < ordinals.length; index++) {
+				// the book may have been removed since the index was searched
+				Object book = slots.get(ordinals[index]);
+				if (book != null) {
+					found.add(book);
+				}
+			}
+		}
+		return found.iterator();
+	}
+
+	/**
+	 * Finds the books whose title starts with a prefix, ignoring case
+	 * 
+	 * @param prefix
+	 *            the start of the title
+	 * @param limit
+	 *            the largest number of books to be returned
+	 * @return iterator to the books, in title order
+	 */
+	public Iterator startingWith(String prefix, int limit) {
+		return startingWith(prefix, null, limit);
+	}
+
+	/**
+	 * Finds the books that are not checked out and whose title starts with a
+	 * prefix, ignoring case
+	 * 
+	 * @param prefix
+	 *            the start of the title
+	 * @param limit
+	 *            the largest number of books to be returned
+	 * @return iterator to the books, in title order
+	 */
+	public Iterator notCheckedOutStartingWith(String prefix, int limit) {
+		return startingWith(prefix, notCheckedOut, limit);
+	}
+
+	/*
+	 * Looks up a title prefix among the books with a given status, or among
+	 * all books if the status is null
+	 */
+	private Iterator startingWith(String prefix, BitSet status, int limit) {
+		loadAll();
+		synchronized (this) {
+			return titleIndex.startingWith(prefix, status, limit).iterator();
+		}
+	}
+
+	/**
+	 * Looks up a book among the books that are loaded, without going to the
+	 * store
+	 * 
+	 * @param bookId
+	 *            the id of the book
+	 * @return the book, or null if it is not loaded
+	 */
+	Book findLoaded(String bookId) {
+		return bookId == null ? null : (Book) bookIndex.get(bookId);
+	}
+
+	/**
+	 * Inserts a book without checking for a duplicate id. Used by the store
+	 * when it loads a book.
+	 * 
+	 * @param book
+	 *            the book to be inserted
+	 */
+	synchronized void insertLoaded(Book book) {
+		bookIndex.put(book.getId(), book);
+		addSlot(book);
+	}
+
+	/**
+	 * Inserts a book loaded from the store at the position it has there, so
+	 * that the catalog keeps the order it was saved in however the books are
+	 * loaded. The word and title indexes are filled in once everything is
+	 * loaded, as they only take books in order.
+	 * 
+	 * @param book
+	 *            the book to be inserted
+	 * @param position
+	 *            the position of the book in the store
+	 */
+	synchronized void insertLoaded(Book book, int position) {
+		bookIndex.put(book.getId(), book);
+		book.setOrdinal(position);
+		slots.set(position, book);
+		updateStatus(book);
+	}
+
+	/**
+	 * Makes the catalog load books from a store as they are asked for. The
+	 * first positions are kept for the books of the store.
+	 * 
+	 * @param store
+	 *            the store holding the books that are not loaded yet
+	 * @param count
+	 *            the number of books in the store
+	 */
+	synchronized void attach(LibraryStore store, int count) {
+		slots.addAll(Collections.nCopies(count, null));
+		this.store = store;
+	}
+
+	/**
+	 * Returns the store books are still loaded from
+	 * 
+	 * @return the store, or null if every book is loaded
+	 */
+	LibraryStore store() {
+		return store;
+	}
+
+	/**
+	 * Returns the books by position. A position is empty if its book has been
+	 * removed or is still in the store.
+	 * 
+	 * @return a copy of the positions
+	 */
+	synchronized List slots() {
+		return new ArrayList(slots);
+	}
+
+	/*
+	 * Loads every book still in the store, then indexes the words and titles
+	 * in catalog order. Needed before the whole catalog is listed or searched.
+	 */
+	private void loadAll() {
+		LibraryStore loading = store;
+		if (loading != null) {
+			loading.loadAllBooks();
+			synchronized (this) {
+				if (store != null) {
+					store = null;
+					textIndex = new TextIndex();
+					titleIndex = new TitleIndex();
+					for (Iterator iterator = slots.iterator(); iterator.hasNext();) {
+						Book book = (Book) iterator.next();
+						if (book != null) {
+							textIndex.add(book);
+							titleIndex.add(book);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Brings the status sets up to date after the state of a book has changed.
+	 * Called by Book whenever it is issued, returned or its holds change.
+	 * 
+	 * @param book
+	 *            the book whose state changed
+	 */
+	public synchronized void updateStatus(Book book) {
+		int ordinal = book.getOrdinal();
+		if (ordinal < 0 || ordinal >= slots.size() || slots.get(ordinal) != book) {
+			return;
+		}
+		boolean issued = book.getBorrower() != null;
+		boolean held = book.hasHold();
+		checkedOut.set(ordinal, issued);
+		notCheckedOut.set(ordinal, !issued);
+		removable.set(ordinal, !issued && !held);
+		hasHold.set(ordinal, issued && held);
+	}
+
+	/*
+	 * Gives the book the next ordinal and records its status
+	 */
+	private void addSlot(Book book) {
+		book.setOrdinal(slots.size());
+		slots.add(book);
+		updateStatus(book);
+		textIndex.add(book);
+		titleIndex.add(book);
 	}
 
 	/**
@@ -108,17 +382,37 @@ public class Catalog implements Serializable {
 	 * @return iterator to the collection
 	 */
 	public Iterator getBooks() {
-		return books.iterator();
+		return books().iterator();
 	}
 
 	/*
-	 * Supports serialization
+	 * Copies the books out of their positions, in catalog order
+	 */
+	private List books() {
+		loadAll();
+		synchronized (this) {
+			List books = new ArrayList(slots.size());
+			for (Iterator iterator = slots.iterator(); iterator.hasNext();) {
+				Object book = iterator.next();
+				if (book != null) {
+					books.add(book);
+				}
+			}
+			return books;
+		}
+	}
+
+	/*
+	 * Supports serialization. The books are written as a list, in catalog
+	 * order.
 	 * 
 	 * @param output the stream to be written to
 	 */
 	private void writeObject(java.io.ObjectOutputStream output) {
 		try {
-			output.defaultWriteObject();
+			ObjectOutputStream.PutField fields = output.putFields();
+			fields.put("books", new LinkedList(books()));
+			output.writeFields();
 			output.writeObject(catalog);
 		} catch (IOException ioe) {
 			System.out.println(ioe);
@@ -135,7 +429,8 @@ public class Catalog implements Serializable {
 			if (catalog != null) {
 				return;
 			} else {
-				input.defaultReadObject();
+				ObjectInputStream.GetField fields = input.readFields();
+				rebuildIndex((List) fields.get("books", null));
 				if (catalog == null) {
 					catalog = (Catalog) input.readObject();
 				} else {
@@ -149,13 +444,78 @@ public class Catalog implements Serializable {
 		}
 	}
 
+	/*
+	 * Rebuilds the id index and the positions from the book list read. They
+	 * are not serialized.
+	 */
+	private void rebuildIndex(List books) {
+		bookIndex = new ConcurrentHashMap();
+		slots = new ArrayList();
+		checkedOut = new BitSet();
+		notCheckedOut = new BitSet();
+		removable = new BitSet();
+		hasHold = new BitSet();
+		textIndex = new TextIndex();
+		titleIndex = new TitleIndex();
+		for (Iterator iterator = books.iterator(); iterator.hasNext();) {
+			Book book = (Book) iterator.next();
+			bookIndex.put(book.getId(), book);
+			addSlot(book);
+		}
+	}
+
+	/**
+	 * Writes the string form of the collection to a writer. The books are
+	 * copied out of the catalog a chunk at a time, so neither the whole
+	 * string form nor the catalog lock is held while writing.
+	 * 
+	 * @param output
+	 *            the writer
+	 * @throws IOException
+	 *             if the writer fails
+	 */
+	public void dump(Writer output) throws IOException {
+		loadAll();
+		output.write('[');
+		List chunk = new ArrayList(DUMP_CHUNK);
+		int next = 0;
+		boolean first = true;
+		while (true) {
+			chunk.clear();
+			synchronized (this) {
+				if (next >= slots.size()) {
+					break;
+				}
+				for (; next < slots.size() && chunk.size() < DUMP_CHUNK; next++) {
+					if (slots.get(next) != null) {
+						chunk.add(slots.get(next));
+					}
+				}
+			}
+			for (Iterator iterator = chunk.iterator(); iterator.hasNext();) {
+				if (!first) {
+					output.write(", ");
+				}
+				first = false;
+				((Book) iterator.next()).dump(output);
+			}
+		}
+		output.write(']');
+	}
+
 	/**
 	 * String form of the collection
 	 * 
 	 */
 	@Override
 	public String toString() {
-		return books.toString();
+		StringWriter string = new StringWriter();
+		try {
+			dump(string);
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		}
+		return string.toString();
 	}
 
 	/**
@@ -169,88 +529,185 @@ public class Catalog implements Serializable {
 	}
 
 	/**
-	 * Builds a list of books that are checked out. Returns a list iterator
+	 * Returns a page of all books. Fetching a page takes time in proportion to
+	 * the size of the page, not to that of the catalog.
 	 * 
+	 * @param token
+	 *            the token of the page, from the page before it, or null for
+	 *            the first page
+	 * @param size
+	 *            the largest number of books on the page
+	 * @return the page, or null if the token is not valid
 	 */
-	public Iterator checkedOutList() {
-		List checkedOut = new LinkedList();
-
-		for (Iterator iterator = books.iterator(); iterator.hasNext();) {
-			Book book = (Book) iterator.next();
-			if (book.getBorrower() != null) {
-				checkedOut.add(book);
-			}
-
-		}
-		// TODO Auto-generated method stub
-		return checkedOut.iterator();
+	public Page getPage(String token, int size) {
+		return page(null, token, size);
 	}
 
 	/**
-	 * Builds a list of books that are not checked out. Returns a list iterator
+	 * Returns a page of the books that are checked out
 	 * 
+	 * @param token
+	 *            the token of the page, or null for the first page
+	 * @param size
+	 *            the largest number of books on the page
+	 * @return the page, or null if the token is not valid
 	 */
-	public Iterator notCheckedOutList() {
-		List notCheckedOut = new LinkedList();
+	public Page checkedOutPage(String token, int size) {
+		return page(checkedOut, token, size);
+	}
 
-		for (Iterator iterator = books.iterator(); iterator.hasNext();) {
-			Book book = (Book) iterator.next();
-			if (book.getBorrower() == null) {
-				notCheckedOut.add(book);
-			}
+	/**
+	 * Returns a page of the books that are not checked out
+	 * 
+	 * @param token
+	 *            the token of the page, or null for the first page
+	 * @param size
+	 *            the largest number of books on the page
+	 * @return the page, or null if the token is not valid
+	 */
+	public Page notCheckedOutPage(String token, int size) {
+		return page(notCheckedOut, token, size);
+	}
 
-		}
-		// TODO Auto-generated method stub
-		return notCheckedOut.iterator();
+	/**
+	 * Returns a page of the books that are both not checked out and not on
+	 * hold
+	 * 
+	 * @param token
+	 *            the token of the page, or null for the first page
+	 * @param size
+	 *            the largest number of books on the page
+	 * @return the page, or null if the token is not valid
+	 */
+	public Page removablePage(String token, int size) {
+		return page(removable, token, size);
 	}
 
 	/**
-	 * Builds a list of books that are both not checked out and not on hold.
-	 * Returns a list iterator
+	 * Returns a page of the books that are checked out and on hold
 	 * 
+	 * @param token
+	 *            the token of the page, or null for the first page
+	 * @param size
+	 *            the largest number of books on the page
+	 * @return the page, or null if the token is not valid
 	 */
-	public Iterator removableList() {
-		List removable = new LinkedList();
+	public Page hasHoldPage(String token, int size) {
+		return page(hasHold, token, size);
+	}
 
-		for (Iterator iterator = books.iterator(); iterator.hasNext();) {
-			Book book = (Book) iterator.next();
-			if (book.getBorrower() == null && (!(book.hasHold()))) {
-				removable.add(book);
+	/*
+	 * Collects a page of the books whose ordinals are set in a status set, or
+	 * of all books if the status is null. The token holds the ordinal to
+	 * continue from; new books get larger ordinals, so they only ever show up
+	 * on later pages.
+	 */
+	private Page page(BitSet status, String token, int size) {
+		int next = Page.position(token, PAGE_TOKEN);
+		if (next < 0) {
+			return null;
+		}
+		loadAll();
+		List books = new ArrayList(Math.max(0, Math.min(size, DUMP_CHUNK)));
+		synchronized (this) {
+			next = nextBook(status, next);
+			while (next >= 0 && books.size() < size) {
+				books.add(slots.get(next));
+				next = nextBook(status, next + 1);
 			}
+		}
+		return new Page(books, next < 0 ? null : Page.token(next, PAGE_TOKEN));
+	}
 
+	/*
+	 * Returns the first ordinal from a given one on that is set in the
+	 * status, or that belongs to a book if the status is null; -1 if there is
+	 * none
+	 */
+	private int nextBook(BitSet status, int from) {
+		if (status != null) {
+			return status.nextSetBit(from);
+		}
+		// every book is either checked out or not
+		int issued = checkedOut.nextSetBit(from);
+		int available = notCheckedOut.nextSetBit(from);
+		if (issued < 0 || available < 0) {
+			return Math.max(issued, available);
 		}
-		return removable.iterator();
+		return Math.min(issued, available);
 	}
 
 	/**
-	 * Builds a list of books that are on hold. Returns a list iterator
+	 * Returns an iterator over the books that are checked out
 	 * 
 	 */
-	public Iterator hasHoldList() {
-		List hasHold = new LinkedList();
+	public Iterator checkedOutList() {
+		return new StatusIterator(checkedOut);
+	}
 
-		for (Iterator iterator = books.iterator(); iterator.hasNext();) {
-			Book book = (Book) iterator.next();
-			if (book.getBorrower() != null && book.hasHold()) {
-				hasHold.add(book);
-			}
+	/**
+	 * Returns an iterator over the books that are not checked out
+	 * 
+	 */
+	public Iterator notCheckedOutList() {
+		return new StatusIterator(notCheckedOut);
+	}
 
-		}
+	/**
+	 * Returns an iterator over the books that are both not checked out and not
+	 * on hold
+	 * 
+	 */
+	public Iterator removableList() {
+		return new StatusIterator(removable);
+	}
 
-		return hasHold.iterator();
+	/**
+	 * Returns an iterator over the books that are checked out and on hold
+	 * 
+	 */
+	public Iterator hasHoldList() {
+		return new StatusIterator(hasHold);
 	}
 
 	public Iterator hasBookList(String memberID) {
-		List hasBook = new LinkedList();
-		for (Iterator iterator = books.iterator(); iterator.hasNext();) {
-			Book book = (Book) iterator.next();
-			if (book.getBorrower() != null) {
-				hasBook.add(book);
+		return new StatusIterator(checkedOut);
+	}
+
+	/*
+	 * Iterates over the books whose ordinals are set in a status set, in
+	 * catalog order. Works on a copy of the set taken when the iterator is
+	 * created, so books changing state meanwhile do not disturb it.
+	 */
+	private class StatusIterator implements Iterator {
+		private BitSet status;
+		private int next;
+
+		private StatusIterator(BitSet status) {
+			loadAll();
+			synchronized (Catalog.this) {
+				this.status = (BitSet) status.clone();
 			}
+			next = this.status.nextSetBit(0);
+		}
 
+		@Override
+		public boolean hasNext() {
+			return next >= 0;
 		}
 
-		return hasBook.iterator();
+		@Override
+		public Object next() {
+			if (next < 0) {
+				throw new NoSuchElementException();
+			}
+			Object book;
+			synchronized (Catalog.this) {
+				book = slots.get(next);
+			}
+			next = status.nextSetBit(next + 1);
+			return book;
+		}
 	}
 
 	/**
@@ -258,8 +715,7 @@ public class Catalog implements Serializable {
 	 * 
 	 */
 	private Iterator getIterator() {
-
-		Iterator<Book> iterator = books.iterator();
+		Iterator<Book> iterator = books().iterator();
 		return iterator;
 	}
 
@@ -285,6 +741,40 @@ public class Catalog implements Serializable {
 
 	}
 
+	/**
+	 * Copies the books of a listing into a random access list, so that the
+	 * listing can be printed and then indexed by sequence number without
+	 * being built a second time
+	 * 
+	 * @param iterator
+	 *            iterator over the listing
+	 * @return a snapshot of the listing
+	 */
+	public static List snapshot(Iterator iterator) {
+		List snapshot = new ArrayList();
+		while (iterator.hasNext()) {
+			snapshot.add(iterator.next());
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Method to get the book ID from a book object selected in a sequence list
+	 * that was built with snapshot
+	 * 
+	 * @param sequenceNumber
+	 *            position of the book, starting at 1
+	 * @param books
+	 *            the snapshot the sequence number refers to
+	 * @return the book id, or null if there is no such position
+	 */
+	public static String getBookId(int sequenceNumber, List books) {
+		if (sequenceNumber < 1 || sequenceNumber > books.size()) {
+			return null;
+		}
+		return ((Book) books.get(sequenceNumber - 1)).getId();
+	}
+
 	/**
 	 * Method to get the book ID from a book object selected in a sequence list,
 	 * also takes an iterator as a parameter
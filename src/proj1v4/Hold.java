@@ -20,15 +20,28 @@ package src.proj1v4;
  */
 import java.util.*;
 import java.io.*;
+import java.time.Instant;
+import java.time.ZoneId;
 /**
  * Represents a single hold on a book by a member
  * @author Brahma Dathan and Sarnath Ramnath
  *
  */
 public class Hold implements Serializable {
+  private static final long serialVersionUID = -8638915813997876133L;
+  /*
+   * The date is kept in milliseconds but written as the Calendar it used to
+   * be, so saved libraries stay readable
+   */
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("book", Book.class),
+    new ObjectStreamField("member", Member.class),
+    new ObjectStreamField("date", Calendar.class)
+  };
   private Book book;
   private Member member;
-  private Calendar date;
+  private long time;
+  private volatile boolean removed;
   /**
    * The member and book are stored. The date is computed by adding the
    * duration days to the current date.
@@ -39,9 +52,19 @@ public class Hold implements Serializable {
   public Hold(Member member, Book book, int duration) {
     this.book = book;
     this.member = member;
-    date = new GregorianCalendar();
-    date.setTimeInMillis(System.currentTimeMillis());
-    date.add(Calendar.DATE, duration);
+    time = Instant.ofEpochMilli(Library.currentTime()).atZone(ZoneId.systemDefault())
+        .plusDays(duration).toInstant().toEpochMilli();
+  }
+  /**
+   * Recreates a hold that is valid until a known time
+   * @param member who placed the hold
+   * @param book the book on which hold is placed
+   * @param time the time in milliseconds until which the hold is valid
+   */
+  Hold(Member member, Book book, long time) {
+    this.book = book;
+    this.member = member;
+    this.time = time;
   }
   /**
    * Getter for Member
@@ -62,14 +85,59 @@ public class Hold implements Serializable {
    * @return date until which the hold is valid
    */
   public Calendar getDate() {
+    Calendar date = new GregorianCalendar();
+    date.setTimeInMillis(time);
     return date;
   }
+  /**
+   * Getter for the date in milliseconds
+   * @return time until which the hold is valid
+   */
+  long getTime() {
+    return time;
+  }
   /**
    * Checks whether the hold has become invalid because the last date has passed
    * @return true iff the hold is valid
    */
   public boolean isValid(){
-    return (System.currentTimeMillis() < date.getTimeInMillis());
+    return (Library.currentTime() < time);
+  }
+  /**
+   * Records that the hold was taken off its book, so that the expiry queue
+   * can drop it
+   */
+  void markRemoved() {
+    removed = true;
+  }
+  /**
+   * Checks whether the hold was removed, processed or replaced
+   * @return true iff the hold is no longer on its book
+   */
+  boolean isRemoved() {
+    return removed;
+  }
+  /*
+   * Supports serialization
+   * @param output the stream to be written to
+   */
+  private void writeObject(ObjectOutputStream output) throws IOException {
+    ObjectOutputStream.PutField fields = output.putFields();
+    fields.put("book", book);
+    fields.put("member", member);
+    fields.put("date", getDate());
+    output.writeFields();
+  }
+  /*
+   * Supports serialization
+   * @param input the stream to be read from
+   */
+  private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = input.readFields();
+    book = (Book) fields.get("book", null);
+    member = (Member) fields.get("member", null);
+    Calendar date = (Calendar) fields.get("date", null);
+    time = date == null ? 0 : date.getTimeInMillis();
   }
 }
 
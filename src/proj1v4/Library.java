@@ -1,11 +1,19 @@
 package src.proj1v4;
 
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.io.Serializable;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 /**
  *
  * @author Brahma Dathan and Sarnath Ramnath
@@ -25,8 +33,23 @@ import java.io.Serializable;
  * The authors do not make any claims regarding the correctness of the code in this module
  * and are not responsible for any loss or damage resulting from its use.
  */
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class Library implements Serializable {
 	private static final long serialVersionUID = 1L;
@@ -39,8 +62,23 @@ public class Library implements Serializable {
 	public static final int OPERATION_COMPLETED = 7;
 	public static final int OPERATION_FAILED = 8;
 	public static final int NO_SUCH_MEMBER = 9;
+	public static final int CHECKPOINT_INTERVAL = 10000;
+	public static final int IMPORT_BATCH = 4096;
+	public static final String DATA_FILE = "LibraryData";
+	private static final int LOCK_STRIPES = 64;
+	private static final int HOLD_EXPIRY_MINIMUM = 1024;
+	private static ThreadLocal replayTime = new ThreadLocal();
 	private Catalog catalog;
 	private MemberList memberList;
+	private transient PriorityQueue holdExpiry = new PriorityQueue(11, new HoldExpiryComparator());
+	private transient int holdExpiryLimit = HOLD_EXPIRY_MINIMUM;
+	private transient ScheduledExecutorService holdExpirer;
+	private transient volatile LibraryJournal journal;
+	private transient volatile boolean checkpointDue;
+	private transient volatile boolean readOnly;
+	private transient ReentrantLock[] locks = newLocks();
+	private transient ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+	private transient Object memberOrder = new Object();
 	private static Library library;
 
 	/**
@@ -57,7 +95,7 @@ public class Library implements Serializable {
 	 *
 	 * @return the singleton object
 	 */
-	public static Library instance() {
+	public static synchronized Library instance() {
 		if (library == null) {
 			MemberIdServer.instance(); // instantiate all singletons
 			return (library = new Library());
@@ -66,6 +104,18 @@ public class Library implements Serializable {
 		}
 	}
 
+	/**
+	 * Drops the transactions left in the TransactionStore, before a library is
+	 * read into a JVM that has none. Once a library is loaded its members
+	 * refer to their transactions by row, so the rows are kept and whatever
+	 * is read is appended after them.
+	 */
+	static synchronized void forgetTransactions() {
+		if (library == null) {
+			TransactionStore.instance().clear();
+		}
+	}
+
 	/**
 	 * Organizes the operations for adding a book
 	 * 
@@ -78,11 +128,23 @@ public class Library implements Serializable {
 	 * @return the Book object created
 	 */
 	public Book addBook(String title, String author, String id) {
-		Book book = new Book(title, author, id);
-		if (catalog.insertBook(book)) {
-			return (book);
+		if (id == null) {
+			return null;
+		}
+		int[] held = lock(new String[] { id });
+		try {
+			if (!log(LibraryJournal.ADD_BOOK, new String[] { title, author, id }, 0)) {
+				return null;
+			}
+			StringPool pool = StringPool.instance();
+			Book book = new Book(pool.intern(title), pool.intern(author), id);
+			if (catalog.insertBook(book)) {
+				return (book);
+			}
+			return null;
+		} finally {
+			unlock(held);
 		}
-		return null;
 	}
 
 	/**
@@ -97,11 +159,233 @@ public class Library implements Serializable {
 	 * @return the Member object created
 	 */
 	public Member addMember(String name, String address, String phone) {
-		Member member = new Member(name, address, phone);
-		if (memberList.insertMember(member)) {
-			return (member);
+		int[] held = lock(new String[0]);
+		try {
+			// ids must be handed out in journal order
+			synchronized (memberOrder) {
+				if (!log(LibraryJournal.ADD_MEMBER, new String[] { name, address, phone }, 0)) {
+					return null;
+				}
+				Member member = new Member(name, address, phone);
+				if (memberList.insertMember(member)) {
+					return (member);
+				}
+				return null;
+			}
+		} finally {
+			unlock(held);
+		}
+	}
+
+	/**
+	 * Adds the books listed in a file. Files whose name ends in .tsv are read
+	 * as tab separated, all others as comma separated.
+	 * 
+	 * @param fileName
+	 *            name of the file
+	 * @return the outcome of the import, or null if the file could not be
+	 *         read
+	 */
+	public BookImport importBooks(String fileName) {
+		try {
+			char separator = fileName.toLowerCase().endsWith(".tsv") ? '\t' : ',';
+			return importBooks(new InputStreamReader(new FileInputStream(fileName), StandardCharsets.UTF_8),
+					separator);
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Adds the books read from a CSV or TSV stream, as described in
+	 * BookImport. The rows are read and inserted IMPORT_BATCH at a time, each
+	 * batch with one pass over the locks, one journal flush and one catalog
+	 * update. If the journal has grown past CHECKPOINT_INTERVAL, a single
+	 * checkpoint is taken at the end rather than one every
+	 * CHECKPOINT_INTERVAL books. The import stops at a batch that cannot be
+	 * journaled; its rows are counted as rejected.
+	 * 
+	 * @param input
+	 *            the rows to be imported
+	 * @param separator
+	 *            the field separator
+	 * @return the outcome of the import, or null if the input could not be
+	 *         read
+	 */
+	public BookImport importBooks(Reader input, char separator) {
+		BookImport result = new BookImport(input, separator);
+		try {
+			try {
+				List batch;
+				while (!(batch = result.readBatch(IMPORT_BATCH)).isEmpty()) {
+					if (!addBooks(batch, result)) {
+						break;
+					}
+				}
+			} finally {
+				result.close();
+				checkpointIfLarge();
+			}
+			return result;
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			return null;
+		}
+	}
+
+	/*
+	 * Adds a batch of rows read by BookImport. Returns false, with the rows
+	 * rejected, if the batch could not be journaled.
+	 */
+	private boolean addBooks(List batch, BookImport result) {
+		String[] ids = new String[batch.size()];
+		List books = new ArrayList(batch.size());
+		List records = new ArrayList(batch.size());
+		StringPool pool = StringPool.instance();
+		for (int index = 0; index < ids.length; index++) {
+			String[] row = (String[]) batch.get(index);
+			ids[index] = row[2];
+			books.add(new Book(pool.intern(row[0]), pool.intern(row[1]), row[2]));
+			// the rows also carry their line number, which is not journaled
+			records.add(new String[] { row[0], row[1], row[2] });
+		}
+		int[] held = lock(ids);
+		try {
+			if (!logAll(LibraryJournal.ADD_BOOK, records)) {
+				for (Iterator iterator = batch.iterator(); iterator.hasNext();) {
+					result.failed((String[]) iterator.next());
+				}
+				return false;
+			}
+			List duplicates = catalog.insertBooks(books);
+			Set rejected = Collections.newSetFromMap(new IdentityHashMap());
+			rejected.addAll(duplicates);
+			for (int index = 0; index < ids.length; index++) {
+				if (rejected.contains(books.get(index))) {
+					result.duplicate((String[]) batch.get(index));
+				} else {
+					result.added();
+				}
+			}
+			return true;
+		} finally {
+			unlock(held);
+		}
+	}
+
+	/**
+	 * Reports how much memory is saved by sharing book titles and author
+	 * names
+	 * 
+	 * @return the statistics of the string pool
+	 */
+	public String getMemoryStats() {
+		return StringPool.instance().toString();
+	}
+
+	/**
+	 * Registers many members at once. The ids are taken as one reserved
+	 * block, the members are created and then inserted into the member list
+	 * in one step, IMPORT_BATCH members at a time. Each member is reported as
+	 * OPERATION_COMPLETED once its batch is in the list. As with importBooks,
+	 * a checkpoint is taken only at the end. Registration stops at a batch
+	 * that cannot be journaled.
+	 * 
+	 * @param details
+	 *            iterator over String arrays holding the name, address and
+	 *            phone of each member
+	 * @param listener
+	 *            receives each member created, in the same order
+	 * @return the number of members created
+	 */
+	public int addMembers(Iterator details, ResultListener listener) {
+		int count = 0;
+		List batch = new ArrayList(IMPORT_BATCH);
+		while (details.hasNext()) {
+			batch.add(details.next());
+			if (batch.size() == IMPORT_BATCH || !details.hasNext()) {
+				List members = addMembers(batch);
+				if (members == null) {
+					break;
+				}
+				for (Iterator iterator = members.iterator(); iterator.hasNext();) {
+					listener.result(count++, OPERATION_COMPLETED, iterator.next());
+				}
+				batch.clear();
+			}
+		}
+		checkpointIfLarge();
+		return count;
+	}
+
+	/*
+	 * Registers a batch of members with ids from one reserved block. Returns
+	 * null if the batch could not be journaled.
+	 */
+	private List addMembers(List batch) {
+		List members = new ArrayList(batch.size());
+		List records = new ArrayList(batch.size());
+		int[] held = lock(new String[0]);
+		try {
+			synchronized (memberOrder) {
+				if (!append(LibraryJournal.RESERVE_IDS, new String[0], batch.size())) {
+					return null;
+				}
+				int id = MemberIdServer.instance().reserve(batch.size());
+				for (Iterator iterator = batch.iterator(); iterator.hasNext(); id++) {
+					String[] member = (String[]) iterator.next();
+					String memberId = Member.MEMBER_STRING + id;
+					members.add(new Member(member[0], member[1], member[2], memberId));
+					records.add(new String[] { member[0], member[1], member[2], memberId });
+				}
+				if (!logAll(LibraryJournal.ADD_RESERVED_MEMBER, records)) {
+					return null;
+				}
+				memberList.insertMembers(members);
+			}
+		} finally {
+			unlock(held);
+		}
+		return members;
+	}
+
+	/*
+	 * Adds a member with an id from a reserved block, during replay
+	 */
+	private void addReservedMember(String name, String address, String phone, String id) {
+		int[] held = lock(new String[] { id });
+		try {
+			if (memberList.search(id) == null) {
+				memberList.insertLoaded(new Member(name, address, phone, id));
+			}
+		} finally {
+			unlock(held);
+		}
+	}
+
+	/**
+	 * Reserves a block of member ids, for members registered in bulk or by
+	 * another node. The reservation is journaled, so the ids are not handed
+	 * out again after a restart.
+	 * 
+	 * @param count
+	 *            number of ids to reserve
+	 * @return the first id of the block, or -1 if the reservation could not
+	 *         be journaled
+	 */
+	public int reserveMemberIds(int count) {
+		int[] held = lock(new String[0]);
+		try {
+			synchronized (memberOrder) {
+				if (!log(LibraryJournal.RESERVE_IDS, new String[0], count)) {
+					return -1;
+				}
+				return MemberIdServer.instance().reserve(count);
+			}
+		} finally {
+			unlock(held);
 		}
-		return null;
 	}
 
 	/**
@@ -116,21 +400,49 @@ public class Library implements Serializable {
 	 * @return indication on the outcome
 	 */
 	public int placeHold(String memberId, String bookId, int duration) {
-		Book book = catalog.search(bookId);
-		if (book == null) {
+		if (bookId == null) {
 			return (BOOK_NOT_FOUND);
 		}
-		if (book.getBorrower() == null) {
-			return (BOOK_NOT_ISSUED);
-		}
-		Member member = memberList.search(memberId);
-		if (member == null) {
+		if (memberId == null) {
 			return (NO_SUCH_MEMBER);
 		}
-		Hold hold = new Hold(member, book, duration);
-		book.placeHold(hold);
-		member.placeHold(hold);
-		return (HOLD_PLACED);
+		int[] held = lock(new String[] { memberId, bookId });
+		try {
+			if (!log(LibraryJournal.PLACE_HOLD, new String[] { memberId, bookId }, duration)) {
+				return (OPERATION_FAILED);
+			}
+			Book book = catalog.search(bookId);
+			if (book == null) {
+				return (BOOK_NOT_FOUND);
+			}
+			if (book.getBorrower() == null) {
+				return (BOOK_NOT_ISSUED);
+			}
+			Member member = memberList.search(memberId);
+			if (member == null) {
+				return (NO_SUCH_MEMBER);
+			}
+			Hold hold = new Hold(member, book, duration);
+			book.placeHold(hold);
+			member.placeHold(hold);
+			trackHold(hold);
+			return (HOLD_PLACED);
+		} finally {
+			unlock(held);
+		}
+	}
+
+	/**
+	 * Finds books by words in their title or author
+	 * 
+	 * @param query
+	 *            the words to look for
+	 * @param limit
+	 *            the largest number of books to be returned
+	 * @return iterator to the best matching books, best first
+	 */
+	public Iterator findBooks(String query, int limit) {
+		return catalog.find(query, limit);
 	}
 
 	/**
@@ -152,17 +464,44 @@ public class Library implements Serializable {
 	 * @return the member who should be notified
 	 */
 	public Member processHold(String bookId) {
-		Book book = catalog.search(bookId);
-		if (book == null) {
+		if (bookId == null) {
 			return (null);
 		}
-		Hold hold = book.getNextHold();
-		if (hold == null) {
-			return (null);
+		while (true) {
+			Hold next;
+			int[] held = lock(new String[] { bookId });
+			try {
+				Book book = catalog.search(bookId);
+				next = book == null ? null : book.peekNextHold();
+				if (next == null) {
+					if (!log(LibraryJournal.PROCESS_HOLD, new String[] { bookId }, 0)) {
+						return (null);
+					}
+					if (book != null) {
+						book.getNextHold();
+					}
+					return (null);
+				}
+			} finally {
+				unlock(held);
+			}
+			// the member of the hold is known now; lock it too and make sure
+			// the hold is still the next one
+			held = lock(new String[] { bookId, next.getMember().getId() });
+			try {
+				Book book = catalog.search(bookId);
+				if (book != null && book.peekNextHold() == next) {
+					if (!log(LibraryJournal.PROCESS_HOLD, new String[] { bookId }, 0)) {
+						return (null);
+					}
+					book.removeHoldsThrough(next);
+					next.getMember().removeHold(bookId);
+					return (next.getMember());
+				}
+			} finally {
+				unlock(held);
+			}
 		}
-		hold.getMember().removeHold(bookId);
-		hold.getBook().removeHold(hold.getMember().getId());
-		return (hold.getMember());
 	}
 
 	/**
@@ -175,31 +514,160 @@ public class Library implements Serializable {
 	 * @return result of the operation
 	 */
 	public int removeHold(String memberId, String bookId) {
-		Member member = memberList.search(memberId);
-		if (member == null) {
+		if (memberId == null) {
 			return (NO_SUCH_MEMBER);
 		}
-		Book book = catalog.search(bookId);
-		if (book == null) {
+		if (bookId == null) {
 			return (BOOK_NOT_FOUND);
 		}
+		int[] held = lock(new String[] { memberId, bookId });
+		try {
+			if (!log(LibraryJournal.REMOVE_HOLD, new String[] { memberId, bookId }, 0)) {
+				return (OPERATION_FAILED);
+			}
+			Member member = memberList.search(memberId);
+			if (member == null) {
+				return (NO_SUCH_MEMBER);
+			}
+			Book book = catalog.search(bookId);
+			if (book == null) {
+				return (BOOK_NOT_FOUND);
+			}
 
-		return member.removeHold(bookId) && book.removeHold(memberId) ? OPERATION_COMPLETED : NO_HOLD_FOUND;
+			return member.removeHold(bookId) && book.removeHold(memberId) ? OPERATION_COMPLETED : NO_HOLD_FOUND;
+		} finally {
+			unlock(held);
+		}
+	}
+
+	/**
+	 * Removes all out-of-date holds. Holds are taken from the expiry queue in
+	 * date order, so only the holds that have expired are looked at. Holds that
+	 * were already removed or processed are simply dropped from the queue.
+	 * 
+	 * @return the number of holds removed
+	 */
+	public int removeInvalidHolds() {
+		int removed = 0;
+		while (true) {
+			Hold hold;
+			synchronized (holdExpiry) {
+				hold = (Hold) holdExpiry.peek();
+				if (hold == null || hold.isValid()) {
+					return removed;
+				}
+				holdExpiry.poll();
+			}
+			String memberId = hold.getMember().getId();
+			String bookId = hold.getBook().getId();
+			int[] held = lock(new String[] { memberId, bookId });
+			try {
+				if (hold.getBook().getHold(memberId) == hold) {
+					if (!log(LibraryJournal.EXPIRE_HOLD, new String[] { memberId, bookId }, 0)) {
+						// left for a later sweep
+						synchronized (holdExpiry) {
+							holdExpiry.add(hold);
+						}
+						return removed;
+					}
+					hold.getBook().removeHold(hold);
+					hold.getMember().removeHold(bookId);
+					removed++;
+				}
+			} finally {
+				unlock(held);
+			}
+		}
+	}
+
+	/**
+	 * Starts a background thread that removes out-of-date holds periodically.
+	 * Only the book and member of each expired hold are locked, and only while
+	 * that hold is being removed, so counter operations are not held up for
+	 * the length of a sweep.
+	 * 
+	 * @param period
+	 *            time between two runs
+	 * @param unit
+	 *            unit of the period
+	 */
+	public synchronized void startHoldExpirer(long period, TimeUnit unit) {
+		if (holdExpirer != null) {
+			return;
+		}
+		holdExpirer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "hold-expirer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		holdExpirer.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				removeInvalidHolds();
+			}
+		}, period, period, unit);
+	}
+
+	/**
+	 * Stops the background thread started by startHoldExpirer
+	 */
+	public synchronized void stopHoldExpirer() {
+		if (holdExpirer != null) {
+			holdExpirer.shutdown();
+			holdExpirer = null;
+		}
+	}
+
+	/**
+	 * Adds a hold to the expiry queue. Holds that were removed or processed
+	 * stay in the queue until they expire, so whenever the queue has doubled
+	 * they are dropped, keeping it within twice the number of holds.
+	 * 
+	 * @param hold
+	 *            the hold to be expired when its date passes
+	 */
+	void trackHold(Hold hold) {
+		synchronized (holdExpiry) {
+			if (holdExpiry.size() >= holdExpiryLimit) {
+				for (Iterator iterator = holdExpiry.iterator(); iterator.hasNext();) {
+					if (((Hold) iterator.next()).isRemoved()) {
+						iterator.remove();
+					}
+				}
+				holdExpiryLimit = Math.max(HOLD_EXPIRY_MINIMUM, 2 * holdExpiry.size());
+			}
+			holdExpiry.add(hold);
+		}
 	}
 
 	/*
-	 * Removes all out-of-date holds
+	 * Puts every hold in the catalog into the expiry queue. The queue is not
+	 * serialized, so this is done after a library is read.
 	 */
-	private void removeInvalidHolds() {
+	void rebuildHoldExpiry() {
+		PriorityQueue queue = new PriorityQueue(11, new HoldExpiryComparator());
 		for (Iterator catalogIterator = catalog.getBooks(); catalogIterator.hasNext();) {
 			for (Iterator iterator = ((Book) catalogIterator.next()).getHolds(); iterator.hasNext();) {
-				Hold hold = (Hold) iterator.next();
-				if (!hold.isValid()) {
-					hold.getBook().removeHold(hold.getMember().getId());
-					hold.getMember().removeHold(hold.getBook().getId());
-				}
+				queue.add(iterator.next());
 			}
 		}
+		holdExpiryLimit = Math.max(HOLD_EXPIRY_MINIMUM, 2 * queue.size());
+		holdExpiry = queue;
+	}
+
+	/*
+	 * Orders holds by the date on which they become invalid
+	 */
+	private static class HoldExpiryComparator implements Comparator {
+		@Override
+		public int compare(Object first, Object second) {
+			long firstDate = ((Hold) first).getTime();
+			long secondDate = ((Hold) second).getTime();
+			return firstDate < secondDate ? -1 : (firstDate == secondDate ? 0 : 1);
+		}
 	}
 
 	/**
@@ -212,22 +680,86 @@ public class Library implements Serializable {
 	 * @return the book issued
 	 */
 	public Book issueBook(String memberId, String bookId) {
-		Book book = catalog.search(bookId);
-		if (book == null) {
+		if (memberId == null || bookId == null) {
 			return (null);
 		}
-		if (book.getBorrower() != null) {
-			return (null);
+		int[] held = lock(new String[] { memberId, bookId });
+		try {
+			if (!log(LibraryJournal.ISSUE_BOOK, new String[] { memberId, bookId }, 0)) {
+				return (null);
+			}
+			Book book = catalog.search(bookId);
+			if (issue(book, book == null ? null : memberList.search(memberId)) != OPERATION_COMPLETED) {
+				return (null);
+			}
+			return (book);
+		} finally {
+			unlock(held);
+		}
+	}
+
+	/**
+	 * Issues many books in one call. All books and members are looked up
+	 * first, and the changes are made with the locks of all of them taken
+	 * once.
+	 * 
+	 * @param loans
+	 *            String arrays holding the member id and the book id of each
+	 *            loan
+	 * @param listener
+	 *            receives a code for each loan as it is made, with the book:
+	 *            BOOK_NOT_FOUND, BOOK_ISSUED, NO_SUCH_MEMBER, OPERATION_FAILED
+	 *            or OPERATION_COMPLETED
+	 */
+	public void issueBooks(List loans, ResultListener listener) {
+		int size = loans.size();
+		String[] ids = new String[size * 2];
+		for (int index = 0; index < size; index++) {
+			String[] loan = (String[]) loans.get(index);
+			ids[2 * index] = loan[0];
+			ids[2 * index + 1] = loan[1];
+		}
+		List records = new ArrayList(size);
+		for (int index = 0; index < size; index++) {
+			if (ids[2 * index] != null && ids[2 * index + 1] != null) {
+				records.add(new String[] { ids[2 * index], ids[2 * index + 1] });
+			}
+		}
+		int[] held = lock(ids);
+		try {
+			boolean logged = logAll(LibraryJournal.ISSUE_BOOK, records);
+			Book[] books = new Book[size];
+			Member[] members = new Member[size];
+			for (int index = 0; index < size; index++) {
+				books[index] = catalog.search(ids[2 * index + 1]);
+				members[index] = memberList.search(ids[2 * index]);
+			}
+			for (int index = 0; index < size; index++) {
+				listener.result(index, logged ? issue(books[index], members[index]) : OPERATION_FAILED, books[index]);
+			}
+		} finally {
+			unlock(held);
 		}
+		checkpointIfLarge();
+	}
 
-		Member member = memberList.search(memberId);
+	/*
+	 * Issues a book to a member; the caller holds the locks of both
+	 */
+	private int issue(Book book, Member member) {
+		if (book == null) {
+			return (BOOK_NOT_FOUND);
+		}
+		if (book.getBorrower() != null) {
+			return (BOOK_ISSUED);
+		}
 		if (member == null) {
-			return (null);
+			return (NO_SUCH_MEMBER);
 		}
 		if (!(book.issue(member) && member.issue(book))) {
-			return null;
+			return (OPERATION_FAILED);
 		}
-		return (book);
+		return (OPERATION_COMPLETED);
 	}
 
 	/**
@@ -240,20 +772,31 @@ public class Library implements Serializable {
 	 * @return the book renewed
 	 */
 	public Book renewBook(String bookId, String memberId) {
-		Book book = catalog.search(bookId);
-		if (book == null) {
-			System.out.println(bookId);
+		if (memberId == null || bookId == null) {
 			return (null);
 		}
-		Member member = memberList.search(memberId);
-		if (member == null) {
-			System.out.println(memberId);
+		int[] held = lock(new String[] { memberId, bookId });
+		try {
+			if (!log(LibraryJournal.RENEW_BOOK, new String[] { bookId, memberId }, 0)) {
+				return (null);
+			}
+			Book book = catalog.search(bookId);
+			if (book == null) {
+				System.out.println(bookId);
+				return (null);
+			}
+			Member member = memberList.search(memberId);
+			if (member == null) {
+				System.out.println(memberId);
+				return (null);
+			}
+			if ((book.renew(member) && member.renew(book))) {
+				return (book);
+			}
 			return (null);
+		} finally {
+			unlock(held);
 		}
-		if ((book.renew(member) && member.renew(book))) {
-			return (book);
-		}
-		return (null);
 	}
 
 	/**
@@ -264,12 +807,7 @@ public class Library implements Serializable {
 	 * @return iterator to the collection
 	 */
 	public Iterator getBooks(String memberId) {
-		Member member = memberList.search(memberId);
-		if (member == null) {
-			return (null);
-		} else {
-			return (member.getBooksIssued());
-		}
+		return getMemberIssued(memberId);
 	}
 
 	/**
@@ -280,20 +818,30 @@ public class Library implements Serializable {
 	 * @return iterator to the collection
 	 */
 	public Iterator getMemberHolds(String memberID) {
-		Member member = memberList.search(memberID);
-		if (member == null) {
-			return (null);
-		} else {
-			return (member.getBooksOnHold());
+		int[] held = lock(new String[] { memberID });
+		try {
+			Member member = memberList.search(memberID);
+			if (member == null) {
+				return (null);
+			} else {
+				return (member.getBooksOnHold());
+			}
+		} finally {
+			unlock(held);
 		}
 	}
 
 	public Iterator getMemberIssued(String memberID) {
-		Member member = memberList.search(memberID);
-		if (member == null) {
-			return (null);
-		} else {
-			return (member.getBooksIssued());
+		int[] held = lock(new String[] { memberID });
+		try {
+			Member member = memberList.search(memberID);
+			if (member == null) {
+				return (null);
+			} else {
+				return (Catalog.snapshot(member.getBooksIssued()).iterator());
+			}
+		} finally {
+			unlock(held);
 		}
 	}
 
@@ -305,20 +853,31 @@ public class Library implements Serializable {
 	 * @return a code representing the outcome
 	 */
 	public int removeBook(String bookId) {
-		Book book = catalog.search(bookId);
-		if (book == null) {
+		if (bookId == null) {
 			return (BOOK_NOT_FOUND);
 		}
-		if (book.hasHold()) {
-			return (BOOK_HAS_HOLD);
-		}
-		if (book.getBorrower() != null) {
-			return (BOOK_ISSUED);
-		}
-		if (catalog.removeBook(bookId)) {
-			return (OPERATION_COMPLETED);
+		int[] held = lock(new String[] { bookId });
+		try {
+			if (!log(LibraryJournal.REMOVE_BOOK, new String[] { bookId }, 0)) {
+				return (OPERATION_FAILED);
+			}
+			Book book = catalog.search(bookId);
+			if (book == null) {
+				return (BOOK_NOT_FOUND);
+			}
+			if (book.hasHold()) {
+				return (BOOK_HAS_HOLD);
+			}
+			if (book.getBorrower() != null) {
+				return (BOOK_ISSUED);
+			}
+			if (catalog.removeBook(bookId)) {
+				return (OPERATION_COMPLETED);
+			}
+			return (OPERATION_FAILED);
+		} finally {
+			unlock(held);
 		}
-		return (OPERATION_FAILED);
 	}
 
 	/**
@@ -329,14 +888,116 @@ public class Library implements Serializable {
 	 * @return a code representing the outcome
 	 */
 	public int returnBook(String bookId) {
-		Book book = catalog.search(bookId);
-		if (book == null) {
-			return (BOOK_NOT_FOUND);
+		while (true) {
+			Member borrower;
+			int[] held = lock(new String[] { bookId });
+			try {
+				Book book = catalog.search(bookId);
+				if (book == null) {
+					return (BOOK_NOT_FOUND);
+				}
+				borrower = book.getBorrower();
+				if (borrower == null) {
+					return (BOOK_NOT_ISSUED);
+				}
+			} finally {
+				unlock(held);
+			}
+			// the borrower is known now; lock it too and make sure the book
+			// was not returned in between
+			held = lock(new String[] { borrower.getId(), bookId });
+			try {
+				Book book = catalog.search(bookId);
+				if (book != null && book.getBorrower() == borrower) {
+					if (!log(LibraryJournal.RETURN_BOOK, new String[] { bookId }, 0)) {
+						return (OPERATION_FAILED);
+					}
+					return returnLoan(book);
+				}
+			} finally {
+				unlock(held);
+			}
 		}
-		Member member = book.returnBook();
-		if (member == null) {
-			return (BOOK_NOT_ISSUED);
+	}
+
+	/**
+	 * Returns many books in one call, as from a return bin. The books and
+	 * their borrowers are looked up first, and the changes are made with the
+	 * locks of all of them taken once. A book that is issued to someone else
+	 * in between is returned on its own afterwards.
+	 * 
+	 * @param bookIds
+	 *            ids of the books to be returned
+	 * @param listener
+	 *            receives a code for each book as it is returned, as
+	 *            returned by returnBook, with the book; a book returned on its
+	 *            own is reported after the others
+	 */
+	public void returnBooks(List bookIds, ResultListener listener) {
+		String[] ids = (String[]) bookIds.toArray(new String[bookIds.size()]);
+		Set borrowers = Collections.newSetFromMap(new IdentityHashMap());
+		int[] held = lock(ids);
+		try {
+			for (int index = 0; index < ids.length; index++) {
+				Book book = catalog.search(ids[index]);
+				if (book != null && book.getBorrower() != null) {
+					borrowers.add(book.getBorrower());
+				}
+			}
+		} finally {
+			unlock(held);
+		}
+		String[] lockIds = Arrays.copyOf(ids, ids.length + borrowers.size());
+		int next = ids.length;
+		for (Iterator iterator = borrowers.iterator(); iterator.hasNext();) {
+			lockIds[next++] = ((Member) iterator.next()).getId();
+		}
+		List retry = new ArrayList();
+		held = lock(lockIds);
+		try {
+			Book[] books = new Book[ids.length];
+			List records = new ArrayList();
+			for (int index = 0; index < ids.length; index++) {
+				books[index] = catalog.search(ids[index]);
+				if (books[index] == null) {
+					listener.result(index, BOOK_NOT_FOUND, null);
+				} else if (books[index].getBorrower() != null) {
+					if (borrowers.contains(books[index].getBorrower())) {
+						records.add(new String[] { ids[index] });
+					} else {
+						// issued to a member whose lock is not held
+						books[index] = null;
+						retry.add(Integer.valueOf(index));
+					}
+				}
+			}
+			boolean logged = logAll(LibraryJournal.RETURN_BOOK, records);
+			for (int index = 0; index < ids.length; index++) {
+				if (books[index] == null) {
+					continue;
+				}
+				if (books[index].getBorrower() == null) {
+					listener.result(index, BOOK_NOT_ISSUED, books[index]);
+				} else {
+					listener.result(index, logged ? returnLoan(books[index]) : OPERATION_FAILED, books[index]);
+				}
+			}
+		} finally {
+			unlock(held);
+		}
+		for (Iterator iterator = retry.iterator(); iterator.hasNext();) {
+			int index = ((Integer) iterator.next()).intValue();
+			listener.result(index, returnBook(ids[index]), catalog.search(ids[index]));
 		}
+		checkpointIfLarge();
+	}
+
+	/*
+	 * Returns an issued book; the caller holds the locks of the book and its
+	 * borrower
+	 */
+	private int returnLoan(Book book) {
+		Member member = book.returnBook();
 		if (!(member.returnBook(book))) {
 			return (OPERATION_FAILED);
 		}
@@ -357,19 +1018,29 @@ public class Library implements Serializable {
 	 * @return iterator to the collection
 	 */
 	public Iterator getTransactions(String memberId, Calendar date) {
-		Member member = memberList.search(memberId);
-		if (member == null) {
-			return (null);
+		int[] held = lock(new String[] { memberId });
+		try {
+			Member member = memberList.search(memberId);
+			if (member == null) {
+				return (null);
+			}
+			return member.getTransactions(date);
+		} finally {
+			unlock(held);
 		}
-		return member.getTransactions(date);
 	}
 
 	public Iterator getTransactions(String memberId) {
-		Member member = memberList.search(memberId);
-		if (member == null) {
-			return (null);
+		int[] held = lock(new String[] { memberId });
+		try {
+			Member member = memberList.search(memberId);
+			if (member == null) {
+				return (null);
+			}
+			return member.getTransactions();
+		} finally {
+			unlock(held);
 		}
-		return member.getTransactions();
 	}
 
 	/**
@@ -378,11 +1049,26 @@ public class Library implements Serializable {
 	 * @return a Library object
 	 */
 	public static Library retrieve() {
+		return retrieve(DATA_FILE);
+	}
+
+	/**
+	 * Retrieves a deserialized version of the library from a given file
+	 * 
+	 * @param fileName
+	 *            name of the file
+	 * @return a Library object
+	 */
+	public static Library retrieve(String fileName) {
 		try {
-			FileInputStream file = new FileInputStream("LibraryData");
+			FileInputStream file = new FileInputStream(fileName);
+			forgetTransactions();
 			ObjectInputStream input = new ObjectInputStream(file);
 			input.readObject();
 			MemberIdServer.retrieve(input);
+			if (library != null) {
+				library.rebuildHoldExpiry();
+			}
 			return library;
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
@@ -399,8 +1085,21 @@ public class Library implements Serializable {
 	 * @return true iff the data could be saved
 	 */
 	public static boolean save() {
+		return save(DATA_FILE);
+	}
+
+	/**
+	 * Serializes the Library object to a given file. Operations wait while it
+	 * is written.
+	 * 
+	 * @param fileName
+	 *            name of the file
+	 * @return true iff the data could be saved
+	 */
+	public static boolean save(String fileName) {
+		Lock lock = lockForSave();
 		try {
-			FileOutputStream file = new FileOutputStream("LibraryData");
+			FileOutputStream file = new FileOutputStream(fileName);
 			ObjectOutputStream output = new ObjectOutputStream(file);
 			output.writeObject(library);
 			output.writeObject(MemberIdServer.instance());
@@ -408,9 +1107,434 @@ public class Library implements Serializable {
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
 			return false;
+		} finally {
+			unlockAfterSave(lock);
+		}
+	}
+
+	/*
+	 * Waits for the operations in progress to finish and holds up new ones,
+	 * as checkpoint does, so that a save sees no list being changed. Returns
+	 * the lock taken, or null if there is no library yet.
+	 */
+	private static Lock lockForSave() {
+		Library current = library;
+		if (current == null) {
+			return null;
+		}
+		Lock lock = current.checkpointLock.writeLock();
+		lock.lock();
+		return lock;
+	}
+
+	/*
+	 * Releases the lock taken by lockForSave
+	 */
+	private static void unlockAfterSave(Lock lock) {
+		if (lock != null) {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Retrieves the library from the compact snapshot file written by
+	 * saveSnapshot. Meant to be called before any data has been added.
+	 * 
+	 * @return a Library object
+	 */
+	public static Library retrieveSnapshot() {
+		return LibrarySnapshot.read(LibrarySnapshot.SNAPSHOT_FILE);
+	}
+
+	/**
+	 * Saves the library in the compact snapshot format
+	 * 
+	 * @return true iff the data could be saved
+	 */
+	public static boolean saveSnapshot() {
+		Lock lock = lockForSave();
+		try {
+			return LibrarySnapshot.write(LibrarySnapshot.SNAPSHOT_FILE);
+		} finally {
+			unlockAfterSave(lock);
+		}
+	}
+
+	/**
+	 * Opens the memory-mapped store written by saveStore. Books and members
+	 * are loaded as they are looked up. Meant to be called before any data has
+	 * been added.
+	 * 
+	 * @return a Library object
+	 */
+	public static Library openStore() {
+		return LibraryStore.open(LibraryStore.STORE_FILE);
+	}
+
+	/**
+	 * Saves the library as a memory-mapped store
+	 * 
+	 * @return true iff the data could be saved
+	 */
+	public static boolean saveStore() {
+		Lock lock = lockForSave();
+		try {
+			return LibraryStore.write(LibraryStore.STORE_FILE);
+		} finally {
+			unlockAfterSave(lock);
+		}
+	}
+
+	/**
+	 * Rebuilds the library from the last snapshot and the journal written
+	 * since. If there is no snapshot, the journal is applied to an empty
+	 * library. A snapshot taken while the library was open on a store is
+	 * itself a store, and is opened rather than read.
+	 * 
+	 * @return a Library object, or null if the data could not be read
+	 */
+	public static Library recover() {
+		Library recovered;
+		if (new File(LibrarySnapshot.SNAPSHOT_FILE).exists()) {
+			if (LibraryStore.isStore(LibrarySnapshot.SNAPSHOT_FILE)) {
+				recovered = LibraryStore.open(LibrarySnapshot.SNAPSHOT_FILE);
+			} else {
+				recovered = LibrarySnapshot.read(LibrarySnapshot.SNAPSHOT_FILE);
+			}
+			if (recovered == null) {
+				return null;
+			}
+		} else {
+			recovered = instance();
+		}
+		try {
+			LibraryJournal.replay(LibraryJournal.JOURNAL_FILE, recovered);
+			return recovered;
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the current state and starts a new journal from
+	 * it. From then on every operation that changes the library is appended
+	 * to the journal, and a new snapshot is taken every CHECKPOINT_INTERVAL
+	 * operations. An operation whose record cannot be written is refused, as
+	 * OPERATION_FAILED or null, and the library stays read-only until a
+	 * checkpoint succeeds.
+	 * 
+	 * @return true iff the snapshot and journal could be written
+	 */
+	public boolean startJournal() {
+		checkpointLock.writeLock().lock();
+		try {
+			if (journal == null) {
+				if (!writeSnapshot()) {
+					return false;
+				}
+				journal = new LibraryJournal(LibraryJournal.JOURNAL_FILE, true);
+				readOnly = false;
+				return true;
+			}
+			return checkpoint();
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			return false;
+		} finally {
+			checkpointLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Stops journaling. The snapshot and journal files are left in place.
+	 */
+	public void stopJournal() {
+		checkpointLock.writeLock().lock();
+		try {
+			if (journal != null) {
+				journal.close();
+				journal = null;
+			}
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		} finally {
+			checkpointLock.writeLock().unlock();
 		}
 	}
 
+	/**
+	 * Writes a snapshot and truncates the journal. Waits for the operations in
+	 * progress to finish and holds up new ones while the snapshot is written.
+	 * 
+	 * @return true iff the snapshot could be written
+	 */
+	public boolean checkpoint() {
+		checkpointLock.writeLock().lock();
+		try {
+			checkpointDue = false;
+			if (!writeSnapshot()) {
+				return false;
+			}
+			if (journal != null) {
+				journal.truncate();
+			}
+			readOnly = false;
+			return true;
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			return false;
+		} finally {
+			checkpointLock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * Writes the snapshot; a failed write leaves the previous one intact.
+	 * While books or members are still to be loaded from a store, the
+	 * snapshot is written as a store, copying their records rather than
+	 * loading them.
+	 */
+	private boolean writeSnapshot() {
+		if (LibraryStore.attached() != null) {
+			return LibraryStore.write(LibrarySnapshot.SNAPSHOT_FILE);
+		}
+		return LibrarySnapshot.write(LibrarySnapshot.SNAPSHOT_FILE);
+	}
+
+	/*
+	 * Appends an operation to the journal, if journaling is on. Called with the
+	 * locks of the operation held, before it changes anything; if it returns
+	 * false the operation must be refused. A checkpoint that becomes due is
+	 * taken once the locks are released.
+	 */
+	private boolean log(int operation, String[] arguments, int number) {
+		if (!append(operation, arguments, number)) {
+			return false;
+		}
+		LibraryJournal current = journal;
+		if (current != null && current.size() >= CHECKPOINT_INTERVAL) {
+			checkpointDue = true;
+		}
+		return true;
+	}
+
+	/*
+	 * Appends an operation to the journal, if journaling is on, without
+	 * scheduling a checkpoint. Returns false if the library is read-only or
+	 * the record could not be written.
+	 */
+	private boolean append(int operation, String[] arguments, int number) {
+		LibraryJournal current = journal;
+		if (current == null) {
+			return true;
+		}
+		if (readOnly) {
+			return false;
+		}
+		try {
+			current.append(operation, currentTime(), arguments, number);
+			return true;
+		} catch (IOException ioe) {
+			journalFailed(ioe);
+			return false;
+		}
+	}
+
+	/*
+	 * Appends a batch of records of one operation to the journal, if
+	 * journaling is on. Does not schedule a checkpoint; bulk operations take
+	 * one when they are done. Returns false if none of the records was
+	 * written.
+	 */
+	private boolean logAll(int operation, List arguments) {
+		LibraryJournal current = journal;
+		if (current == null) {
+			return true;
+		}
+		if (readOnly) {
+			return false;
+		}
+		try {
+			current.append(operation, currentTime(), arguments);
+			return true;
+		} catch (IOException ioe) {
+			journalFailed(ioe);
+			return false;
+		}
+	}
+
+	/*
+	 * Makes the library read-only after a journal write failed, so that
+	 * nothing changes in memory that would be lost on recovery. A checkpoint
+	 * is tried once the locks are released; if it succeeds the journal starts
+	 * afresh and changes are accepted again.
+	 */
+	private void journalFailed(IOException ioe) {
+		ioe.printStackTrace();
+		readOnly = true;
+		checkpointDue = true;
+	}
+
+	/**
+	 * Tells whether changes are being refused because the journal could not be
+	 * written. A successful checkpoint ends this.
+	 * 
+	 * @return true iff the library is read-only
+	 */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	/*
+	 * Takes a checkpoint after a bulk operation if the journal has grown past
+	 * CHECKPOINT_INTERVAL
+	 */
+	private void checkpointIfLarge() {
+		LibraryJournal current = journal;
+		if (current != null && current.size() >= CHECKPOINT_INTERVAL) {
+			checkpoint();
+		}
+	}
+
+	/*
+	 * Locks the stripes of the given book and member ids, always in ascending
+	 * stripe order so that two operations cannot wait for each other.
+	 * Operations on books and members in different stripes run in parallel;
+	 * only checkpoints, which take the write side of checkpointLock, stop
+	 * them all.
+	 */
+	private int[] lock(String[] ids) {
+		int[] stripes = new int[ids.length];
+		for (int index = 0; index < ids.length; index++) {
+			stripes[index] = ids[index] == null ? 0 : (ids[index].hashCode() & 0x7FFFFFFF) % LOCK_STRIPES;
+		}
+		Arrays.sort(stripes);
+		int count = 0;
+		for (int index = 0; index < stripes.length; index++) {
+			if (count == 0 || stripes[count - 1] != stripes[index]) {
+				stripes[count++] = stripes[index];
+			}
+		}
+		int[] held = Arrays.copyOf(stripes, count);
+		checkpointLock.readLock().lock();
+		for (int index = 0; index < held.length; index++) {
+			locks[held[index]].lock();
+		}
+		return held;
+	}
+
+	/*
+	 * Releases the stripes taken by lock, then takes a checkpoint if one is
+	 * due
+	 */
+	private void unlock(int[] held) {
+		for (int index = held.length - 1; index >= 0; index--) {
+			locks[held[index]].unlock();
+		}
+		checkpointLock.readLock().unlock();
+		if (checkpointDue && checkpointLock.getReadHoldCount() == 0) {
+			checkpoint();
+		}
+	}
+
+	/*
+	 * Creates the stripe locks
+	 */
+	private static ReentrantLock[] newLocks() {
+		ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+		for (int index = 0; index < locks.length; index++) {
+			locks[index] = new ReentrantLock();
+		}
+		return locks;
+	}
+
+	/**
+	 * Applies one journal record, with the clock set to the time of the
+	 * record
+	 * 
+	 * @param operation
+	 *            the operation code
+	 * @param time
+	 *            time of the operation in milliseconds
+	 * @param arguments
+	 *            string arguments of the operation
+	 * @param number
+	 *            numeric argument of the operation
+	 */
+	void apply(int operation, long time, String[] arguments, int number) {
+		replayTime.set(Long.valueOf(time));
+		try {
+			switch (operation) {
+			case LibraryJournal.ADD_BOOK:
+				addBook(arguments[0], arguments[1], arguments[2]);
+				break;
+			case LibraryJournal.ADD_MEMBER:
+				addMember(arguments[0], arguments[1], arguments[2]);
+				break;
+			case LibraryJournal.ISSUE_BOOK:
+				issueBook(arguments[0], arguments[1]);
+				break;
+			case LibraryJournal.RETURN_BOOK:
+				returnBook(arguments[0]);
+				break;
+			case LibraryJournal.RENEW_BOOK:
+				renewBook(arguments[0], arguments[1]);
+				break;
+			case LibraryJournal.PLACE_HOLD:
+				placeHold(arguments[0], arguments[1], number);
+				break;
+			case LibraryJournal.REMOVE_HOLD:
+				removeHold(arguments[0], arguments[1]);
+				break;
+			case LibraryJournal.PROCESS_HOLD:
+				processHold(arguments[0]);
+				break;
+			case LibraryJournal.REMOVE_BOOK:
+				removeBook(arguments[0]);
+				break;
+			case LibraryJournal.EXPIRE_HOLD:
+				expireHold(arguments[0], arguments[1]);
+				break;
+			case LibraryJournal.RESERVE_IDS:
+				reserveMemberIds(number);
+				break;
+			case LibraryJournal.ADD_RESERVED_MEMBER:
+				addReservedMember(arguments[0], arguments[1], arguments[2], arguments[3]);
+				break;
+			}
+		} finally {
+			replayTime.remove();
+		}
+	}
+
+	/*
+	 * Removes an expired hold found by removeInvalidHolds, during replay
+	 */
+	private void expireHold(String memberId, String bookId) {
+		int[] held = lock(new String[] { memberId, bookId });
+		try {
+			Book book = catalog.search(bookId);
+			Member member = memberList.search(memberId);
+			if (book != null && member != null && book.removeHold(memberId)) {
+				member.removeHold(bookId);
+			}
+		} finally {
+			unlock(held);
+		}
+	}
+
+	/**
+	 * The current time. While a journal record is being replayed this is the
+	 * time the record was written.
+	 * 
+	 * @return time in milliseconds
+	 */
+	static long currentTime() {
+		Long time = (Long) replayTime.get();
+		return time == null ? System.currentTimeMillis() : time.longValue();
+	}
+
 	/**
 	 * Writes the object to the output stream
 	 * 
@@ -435,6 +1559,11 @@ public class Library implements Serializable {
 	private void readObject(java.io.ObjectInputStream input) {
 		try {
 			input.defaultReadObject();
+			locks = newLocks();
+			checkpointLock = new ReentrantReadWriteLock();
+			memberOrder = new Object();
+			holdExpiry = new PriorityQueue(11, new HoldExpiryComparator());
+			holdExpiryLimit = HOLD_EXPIRY_MINIMUM;
 			if (library == null) {
 				library = (Library) input.readObject();
 			} else {
@@ -447,13 +1576,54 @@ public class Library implements Serializable {
 		}
 	}
 
+	/**
+	 * Writes the string form of the library to a writer, a few books and
+	 * members at a time
+	 * 
+	 * @param output
+	 *            the writer
+	 * @throws IOException
+	 *             if the writer fails
+	 */
+	public void dump(Writer output) throws IOException {
+		catalog.dump(output);
+		output.write('\n');
+		memberList.dump(output);
+	}
+
+	/**
+	 * Writes the string form of the library to a file
+	 * 
+	 * @param fileName
+	 *            name of the file
+	 * @return true iff the library could be written
+	 */
+	public boolean dump(String fileName) {
+		try {
+			Writer output = new BufferedWriter(
+					new OutputStreamWriter(new FileOutputStream(fileName), StandardCharsets.UTF_8));
+			dump(output);
+			output.close();
+			return true;
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			return false;
+		}
+	}
+
 	/**
 	 * String form of the library
 	 *
 	 */
 	@Override
 	public String toString() {
-		return catalog + "\n" + memberList;
+		StringWriter string = new StringWriter();
+		try {
+			dump(string);
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		}
+		return string.toString();
 	}
 
 	public Iterator<Member> serveIterator() {
@@ -463,18 +1633,10 @@ public class Library implements Serializable {
 	}
 
 	public String getMemberId(int sequenceNumber) {
-		int i = 0;
-		Iterator<Member> members = MemberList.instance().getIterator();
-		Member m = null;
-
-		while (members.hasNext()) {
-			i++;
-			m = members.next();
-
-			if (i == sequenceNumber)
-
-				return m.getId();
+		Member member = memberList.getMember(sequenceNumber);
+		if (member == null) {
+			return null;
 		}
-		return null;
+		return member.getId();
 	}
 }
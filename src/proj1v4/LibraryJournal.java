@@ -0,0 +1,344 @@
+package src.proj1v4;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+/**
+ *
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.
+ */
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of the operations that change the library. Each
+ * record holds an operation code, the time of the operation as a varint and
+ * the arguments of the call. Replaying the journal on top of the snapshot it
+ * was started from brings the library back to the state it was in when the
+ * last record was written.
+ * 
+ * The file starts with the magic number "LIBJ" and a version byte. Each
+ * record is framed by its length in front and a CRC32 of its contents
+ * behind, so a record that was only partly written, or was damaged, is
+ * recognized. A record is put together in memory and written to the file in
+ * one call; if the write fails, the file is cut back to the end of the
+ * previous record.
+ *
+ */
+public class LibraryJournal {
+	public static final String JOURNAL_FILE = "LibraryJournal";
+	public static final int ADD_BOOK = 1;
+	public static final int ADD_MEMBER = 2;
+	public static final int ISSUE_BOOK = 3;
+	public static final int RETURN_BOOK = 4;
+	public static final int RENEW_BOOK = 5;
+	public static final int PLACE_HOLD = 6;
+	public static final int REMOVE_HOLD = 7;
+	public static final int PROCESS_HOLD = 8;
+	public static final int REMOVE_BOOK = 9;
+	public static final int EXPIRE_HOLD = 10;
+	public static final int RESERVE_IDS = 11;
+	public static final int ADD_RESERVED_MEMBER = 12;
+	private static final int MAGIC = 0x4c49424a;
+	private static final int VERSION = 1;
+	private static final int HEADER_LENGTH = 5;
+	private static final int MAX_RECORD = 1 << 20;
+	private String fileName;
+	private FileOutputStream file;
+	private long length;
+	private ByteArrayOutputStream contents = new ByteArrayOutputStream();
+	private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	private DataOutputStream framed = new DataOutputStream(pending);
+	private CRC32 checksum = new CRC32();
+	private int records;
+
+	/**
+	 * Opens the journal for appending. If the existing records are kept and
+	 * the last of them is incomplete or damaged, the file is cut back to the
+	 * end of the last good record.
+	 * 
+	 * @param fileName
+	 *            name of the journal file
+	 * @param truncate
+	 *            true if existing records should be discarded
+	 * @throws IOException
+	 *             if the file could not be opened or is not a journal
+	 */
+	public LibraryJournal(String fileName, boolean truncate) throws IOException {
+		this.fileName = fileName;
+		long valid = 0;
+		if (!truncate && new File(fileName).length() > 0) {
+			valid = scan(fileName, null, new int[1]);
+		}
+		file = new FileOutputStream(fileName, !truncate);
+		if (valid > 0) {
+			file.getChannel().truncate(valid);
+		} else {
+			file.getChannel().truncate(0);
+			pending.reset();
+			framed.writeInt(MAGIC);
+			framed.writeByte(VERSION);
+			write(0);
+		}
+		length = file.getChannel().size();
+	}
+
+	/**
+	 * Appends a record. The record is written to the file before returning.
+	 * 
+	 * @param operation
+	 *            the operation code
+	 * @param time
+	 *            time of the operation in milliseconds
+	 * @param arguments
+	 *            string arguments of the operation, any of which may be null
+	 * @param number
+	 *            numeric argument, used by PLACE_HOLD and RESERVE_IDS only
+	 * @throws IOException
+	 *             if the record could not be written; nothing is then left of
+	 *             it in the file
+	 */
+	public synchronized void append(int operation, long time, String[] arguments, int number) throws IOException {
+		pending.reset();
+		frame(operation, time, arguments, number);
+		write(1);
+	}
+
+	/**
+	 * Appends one record per argument list, all with the same operation and
+	 * time, in a single write. Only for operations without a numeric argument.
+	 * 
+	 * @param operation
+	 *            code of the operation
+	 * @param time
+	 *            time of the operations in milliseconds
+	 * @param arguments
+	 *            a string array of arguments for each record
+	 * @throws IOException
+	 *             if the records could not be written; none of them is then
+	 *             left in the file
+	 */
+	public synchronized void append(int operation, long time, List arguments) throws IOException {
+		pending.reset();
+		for (Iterator iterator = arguments.iterator(); iterator.hasNext();) {
+			frame(operation, time, (String[]) iterator.next(), 0);
+		}
+		write(arguments.size());
+	}
+
+	/*
+	 * Adds a record, with its length and checksum, to the pending bytes
+	 */
+	private void frame(int operation, long time, String[] arguments, int number) throws IOException {
+		if (arguments.length != arguments(operation)) {
+			throw new IOException("Wrong number of arguments for journal record " + operation);
+		}
+		contents.reset();
+		DataOutputStream record = new DataOutputStream(contents);
+		record.writeByte(operation);
+		LibrarySnapshot.writeVarLong(record, time);
+		for (int index = 0; index < arguments.length; index++) {
+			record.writeBoolean(arguments[index] != null);
+			if (arguments[index] != null) {
+				record.writeUTF(arguments[index]);
+			}
+		}
+		if (operation == PLACE_HOLD || operation == RESERVE_IDS) {
+			record.writeInt(number);
+		}
+		checksum.reset();
+		checksum.update(contents.toByteArray());
+		framed.writeInt(contents.size());
+		contents.writeTo(framed);
+		framed.writeInt((int) checksum.getValue());
+	}
+
+	/*
+	 * Writes the pending bytes to the file in one call. If that fails, cuts
+	 * the file back to where it ended before.
+	 */
+	private void write(int count) throws IOException {
+		try {
+			pending.writeTo(file);
+		} catch (IOException ioe) {
+			try {
+				file.getChannel().truncate(length);
+			} catch (IOException truncateFailure) {
+				truncateFailure.printStackTrace();
+			}
+			throw ioe;
+		}
+		length += pending.size();
+		records += count;
+	}
+
+	/**
+	 * Returns the number of records appended since the journal was opened or
+	 * truncated
+	 * 
+	 * @return number of records
+	 */
+	public synchronized int size() {
+		return records;
+	}
+
+	/**
+	 * Discards all records, typically after a snapshot has been written
+	 * 
+	 * @throws IOException
+	 *             if the file could not be truncated
+	 */
+	public synchronized void truncate() throws IOException {
+		file.getChannel().truncate(HEADER_LENGTH);
+		length = HEADER_LENGTH;
+		records = 0;
+	}
+
+	/**
+	 * Closes the journal
+	 * 
+	 * @throws IOException
+	 *             if the file could not be closed
+	 */
+	public synchronized void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * Applies every record in a journal file to the library. Replay stops at a
+	 * record that was only partly written, because the program stopped while
+	 * appending it, or whose checksum does not match; that record and
+	 * anything after it are ignored.
+	 * 
+	 * @param fileName
+	 *            name of the journal file
+	 * @param library
+	 *            the library the records are applied to
+	 * @return the number of records applied
+	 * @throws IOException
+	 *             if the file could not be read, is not a journal or holds an
+	 *             unknown record
+	 */
+	public static int replay(String fileName, Library library) throws IOException {
+		if (!new File(fileName).exists()) {
+			return 0;
+		}
+		int[] count = new int[1];
+		scan(fileName, library, count);
+		return count[0];
+	}
+
+	/*
+	 * Reads the records of a journal file, applying them to the library if it
+	 * is not null, and counting them. Returns the length of the file up to
+	 * the end of the last good record.
+	 */
+	private static long scan(String fileName, Library library, int[] count) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+		long valid = 0;
+		try {
+			int magic;
+			int version;
+			try {
+				magic = input.readInt();
+				version = input.readUnsignedByte();
+			} catch (EOFException eofe) {
+				return 0;
+			}
+			if (magic != MAGIC || version != VERSION) {
+				throw new IOException(fileName + " is not a journal of this version");
+			}
+			valid = HEADER_LENGTH;
+			while (true) {
+				byte[] contents;
+				try {
+					int size = input.readInt();
+					if (size <= 0 || size > MAX_RECORD) {
+						System.out.println("Journal record " + (count[0] + 1) + " is damaged; the rest is ignored");
+						break;
+					}
+					contents = new byte[size];
+					input.readFully(contents);
+					int expected = input.readInt();
+					CRC32 checksum = new CRC32();
+					checksum.update(contents);
+					if ((int) checksum.getValue() != expected) {
+						System.out.println("Journal record " + (count[0] + 1) + " is damaged; the rest is ignored");
+						break;
+					}
+				} catch (EOFException eofe) {
+					if (valid < new File(fileName).length()) {
+						System.out.println("Journal record " + (count[0] + 1) + " is incomplete and is ignored");
+					}
+					break;
+				}
+				DataInputStream record = new DataInputStream(new ByteArrayInputStream(contents));
+				int operation = record.readUnsignedByte();
+				long time = LibrarySnapshot.readVarLong(record);
+				String[] arguments = new String[arguments(operation)];
+				for (int index = 0; index < arguments.length; index++) {
+					arguments[index] = record.readBoolean() ? record.readUTF() : null;
+				}
+				int number = operation == PLACE_HOLD || operation == RESERVE_IDS ? record.readInt() : 0;
+				if (library != null) {
+					library.apply(operation, time, arguments, number);
+				}
+				count[0]++;
+				valid += 8 + contents.length;
+			}
+		} finally {
+			input.close();
+		}
+		return valid;
+	}
+
+	/*
+	 * Number of string arguments of each operation
+	 */
+	private static int arguments(int operation) throws IOException {
+		switch (operation) {
+		case ADD_RESERVED_MEMBER:
+			return 4;
+		case ADD_BOOK:
+		case ADD_MEMBER:
+			return 3;
+		case ISSUE_BOOK:
+		case RENEW_BOOK:
+		case PLACE_HOLD:
+		case REMOVE_HOLD:
+		case EXPIRE_HOLD:
+			return 2;
+		case RETURN_BOOK:
+		case PROCESS_HOLD:
+		case REMOVE_BOOK:
+			return 1;
+		case RESERVE_IDS:
+			return 0;
+		default:
+			throw new IOException("Unknown journal record " + operation);
+		}
+	}
+}
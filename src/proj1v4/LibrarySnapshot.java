@@ -0,0 +1,471 @@
+package src.proj1v4;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+/**
+ *
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.
+ */
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes the library in a compact, versioned binary format. This is
+ * an alternative to the Java serialization used by Library.save and
+ * Library.retrieve; running the class converts an existing LibraryData file.
+ * 
+ * The file is laid out as follows. Counts, references and times are unsigned
+ * varints; a string reference is 0 for null, otherwise one more than the index
+ * into the string table. Book, member and hold references are indexes into the
+ * respective sections.
+ * 
+ * <pre>
+ * magic "LIBS", version
+ * string table: count, strings (modified UTF-8)
+ * next member id
+ * members: count, (name, address, phone, id) string references
+ * books: count, (title, author, id) string references
+ * holds: count, (member, book, valid until)
+ * book state: per book, borrower + 1 (0 if not issued), due time,
+ *             hold count, holds in queue order
+ * member state: per member, borrowed count, books,
+ *               hold count, holds, transaction count,
+ *               (type, title, book id) string references and time
+ * </pre>
+ * 
+ * Version 1 snapshots, which have no book id in a transaction, are still
+ * read.
+ * 
+ * The string table is only complete once the rest has been written, so the
+ * rest is written to a file of its own first and then copied after the
+ * table. Neither part is held in memory.
+ *
+ */
+public class LibrarySnapshot {
+	public static final String SNAPSHOT_FILE = "LibrarySnapshot";
+	private static final int MAGIC = 0x4c494253;
+	private static final int VERSION = 2;
+
+	/*
+	 * Not instantiated
+	 */
+	private LibrarySnapshot() {
+	}
+
+	/**
+	 * Writes the library to a snapshot file. The file is written under a
+	 * temporary name and renamed when complete, so a failed write leaves the
+	 * previous file intact.
+	 * 
+	 * @param fileName
+	 *            name of the file
+	 * @return true iff the data could be saved
+	 */
+	public static boolean write(String fileName) {
+		File body = new File(fileName + ".body");
+		File temporary = new File(fileName + ".tmp");
+		try {
+			StringTable strings;
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(body)));
+			try {
+				strings = writeBody(output);
+			} finally {
+				output.close();
+			}
+			FileOutputStream file = new FileOutputStream(temporary);
+			try {
+				DataOutputStream header = new DataOutputStream(new BufferedOutputStream(file));
+				writeHeader(header, strings);
+				header.flush();
+				FileInputStream input = new FileInputStream(body);
+				try {
+					FileChannel from = input.getChannel();
+					FileChannel to = file.getChannel();
+					for (long position = 0; position < from.size();) {
+						position += from.transferTo(position, from.size() - position, to);
+					}
+				} finally {
+					input.close();
+				}
+				file.getFD().sync();
+			} finally {
+				file.close();
+			}
+			Files.move(temporary.toPath(), Paths.get(fileName), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			temporary.delete();
+			return false;
+		} finally {
+			body.delete();
+		}
+	}
+
+	/**
+	 * Reads a snapshot file into the library. The catalog and member list
+	 * should be empty, so this is meant to be called at startup.
+	 * 
+	 * @param fileName
+	 *            name of the file
+	 * @return the Library object, or null if the file could not be read
+	 */
+	public static Library read(String fileName) {
+		try {
+			DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+			try {
+				return read(input);
+			} finally {
+				input.close();
+			}
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			return null;
+		}
+	}
+
+	/*
+	 * Writes everything after the string table, collecting the strings
+	 */
+	private static StringTable writeBody(DataOutput body) throws IOException {
+		List members = Catalog.snapshot(MemberList.instance().getIterator());
+		List books = Catalog.snapshot(Catalog.instance().getBooks());
+		Map memberIndex = new HashMap();
+		Map bookIndex = new HashMap();
+		Map holdIndex = new IdentityHashMap();
+		List holds = new ArrayList();
+		for (int index = 0; index < members.size(); index++) {
+			memberIndex.put(((Member) members.get(index)).getId(), Integer.valueOf(index));
+		}
+		for (int index = 0; index < books.size(); index++) {
+			Book book = (Book) books.get(index);
+			bookIndex.put(book.getId(), Integer.valueOf(index));
+			for (Iterator iterator = book.getHolds(); iterator.hasNext();) {
+				addHold(iterator.next(), holds, holdIndex);
+			}
+		}
+		for (Iterator members1 = members.iterator(); members1.hasNext();) {
+			for (Iterator iterator = ((Member) members1.next()).serveIterator(); iterator.hasNext();) {
+				addHold(iterator.next(), holds, holdIndex);
+			}
+		}
+
+		StringTable strings = new StringTable();
+		writeVarLong(body, MemberIdServer.instance().getNextId());
+		writeVarLong(body, members.size());
+		for (Iterator iterator = members.iterator(); iterator.hasNext();) {
+			Member member = (Member) iterator.next();
+			strings.write(body, member.getName());
+			strings.write(body, member.getAddress());
+			strings.write(body, member.getPhone());
+			strings.write(body, member.getId());
+		}
+		writeVarLong(body, books.size());
+		for (Iterator iterator = books.iterator(); iterator.hasNext();) {
+			Book book = (Book) iterator.next();
+			strings.write(body, book.getTitle());
+			strings.write(body, book.getAuthor());
+			strings.write(body, book.getId());
+		}
+		writeVarLong(body, holds.size());
+		for (Iterator iterator = holds.iterator(); iterator.hasNext();) {
+			Hold hold = (Hold) iterator.next();
+			writeVarLong(body, index(memberIndex, hold.getMember().getId()));
+			writeVarLong(body, index(bookIndex, hold.getBook().getId()));
+			writeVarLong(body, hold.getTime());
+		}
+		for (Iterator iterator = books.iterator(); iterator.hasNext();) {
+			Book book = (Book) iterator.next();
+			Member borrower = book.getBorrower();
+			writeVarLong(body, borrower == null ? 0 : index(memberIndex, borrower.getId()) + 1);
+			writeVarLong(body, book.getDueTime());
+			writeHolds(body, book.getHolds(), holdIndex);
+		}
+		for (Iterator iterator = members.iterator(); iterator.hasNext();) {
+			Member member = (Member) iterator.next();
+			List borrowed = Catalog.snapshot(member.getBooksIssued());
+			writeVarLong(body, borrowed.size());
+			for (Iterator books1 = borrowed.iterator(); books1.hasNext();) {
+				writeVarLong(body, index(bookIndex, ((Book) books1.next()).getId()));
+			}
+			writeHolds(body, member.serveIterator(), holdIndex);
+			List transactions = Catalog.snapshot(member.getTransactions());
+			writeVarLong(body, transactions.size());
+			for (Iterator transactions1 = transactions.iterator(); transactions1.hasNext();) {
+				Transaction transaction = (Transaction) transactions1.next();
+				strings.write(body, transaction.getType());
+				strings.write(body, transaction.getTitle());
+				strings.write(body, transaction.getBookId());
+				writeVarLong(body, transaction.getTime());
+			}
+		}
+		return strings;
+	}
+
+	/*
+	 * Writes the magic, version and string table
+	 */
+	private static void writeHeader(DataOutput output, StringTable strings) throws IOException {
+		output.writeInt(MAGIC);
+		writeVarLong(output, VERSION);
+		writeVarLong(output, strings.size());
+		for (Iterator iterator = strings.iterator(); iterator.hasNext();) {
+			output.writeUTF((String) iterator.next());
+		}
+	}
+
+	/**
+	 * Reads the library from a stream
+	 * 
+	 * @param input
+	 *            the stream to be read from
+	 * @return the Library object
+	 * @throws IOException
+	 *             if the stream could not be read, is not a snapshot, or has
+	 *             two books or two members with the same id
+	 */
+	public static Library read(DataInput input) throws IOException {
+		if (input.readInt() != MAGIC) {
+			throw new IOException("Not a library snapshot");
+		}
+		int version = readInt(input);
+		if (version != 1 && version != VERSION) {
+			throw new IOException("Unsupported snapshot version " + version);
+		}
+		Library.forgetTransactions();
+		String[] strings = new String[readInt(input)];
+		for (int index = 0; index < strings.length; index++) {
+			strings[index] = input.readUTF();
+		}
+		int nextId = readInt(input);
+		Library library = Library.instance();
+		MemberIdServer.restore(nextId);
+		MemberList memberList = MemberList.instance();
+		Catalog catalog = Catalog.instance();
+
+		Member[] members = new Member[readInt(input)];
+		for (int index = 0; index < members.length; index++) {
+			String name = readString(input, strings);
+			String address = readString(input, strings);
+			String phone = readString(input, strings);
+			String id = readString(input, strings);
+			members[index] = new Member(name, address, phone, id);
+			if (!memberList.insertMember(members[index])) {
+				throw new IOException("Duplicate member id " + id);
+			}
+		}
+		StringPool pool = StringPool.instance();
+		Book[] books = new Book[readInt(input)];
+		for (int index = 0; index < books.length; index++) {
+			String title = readString(input, strings);
+			String author = readString(input, strings);
+			String id = readString(input, strings);
+			books[index] = new Book(pool.intern(title), pool.intern(author), id);
+			if (!catalog.insertBook(books[index])) {
+				throw new IOException("Duplicate book id " + id);
+			}
+		}
+		Hold[] holds = new Hold[readInt(input)];
+		for (int index = 0; index < holds.length; index++) {
+			Member member = members[readInt(input)];
+			Book book = books[readInt(input)];
+			holds[index] = new Hold(member, book, readVarLong(input));
+		}
+		for (int index = 0; index < books.length; index++) {
+			int borrower = readInt(input);
+			long dueTime = readVarLong(input);
+			if (borrower != 0) {
+				books[index].restoreLoan(members[borrower - 1], dueTime);
+			}
+			for (int count = readInt(input); count > 0; count--) {
+				books[index].placeHold(holds[readInt(input)]);
+			}
+		}
+		for (int index = 0; index < members.length; index++) {
+			for (int count = readInt(input); count > 0; count--) {
+				members[index].restoreBorrowed(books[readInt(input)]);
+			}
+			for (int count = readInt(input); count > 0; count--) {
+				members[index].restoreHold(holds[readInt(input)]);
+			}
+			for (int count = readInt(input); count > 0; count--) {
+				String type = readString(input, strings);
+				String title = readString(input, strings);
+				String bookId = version == 1 ? null : readString(input, strings);
+				members[index].restoreTransaction(new Transaction(type, title, bookId, null, readVarLong(input)));
+			}
+		}
+		library.rebuildHoldExpiry();
+		return library;
+	}
+
+	/**
+	 * Converts the LibraryData file written by Library.save into a snapshot
+	 * file
+	 * 
+	 * @param args
+	 *            optionally, the name of the snapshot file
+	 */
+	public static void main(String[] args) {
+		String fileName = args.length > 0 ? args[0] : SNAPSHOT_FILE;
+		if (Library.retrieve() == null) {
+			System.out.println("Could not read LibraryData");
+		} else if (write(fileName)) {
+			System.out.println("LibraryData has been converted to " + fileName);
+		} else {
+			System.out.println("Could not write " + fileName);
+		}
+	}
+
+	/*
+	 * Gives a hold the next index unless it already has one
+	 */
+	private static void addHold(Object hold, List holds, Map holdIndex) {
+		if (!holdIndex.containsKey(hold)) {
+			holdIndex.put(hold, Integer.valueOf(holds.size()));
+			holds.add(hold);
+		}
+	}
+
+	/*
+	 * Writes a count followed by the indexes of the holds
+	 */
+	private static void writeHolds(DataOutput output, Iterator iterator, Map holdIndex) throws IOException {
+		List holds = Catalog.snapshot(iterator);
+		writeVarLong(output, holds.size());
+		for (Iterator holds1 = holds.iterator(); holds1.hasNext();) {
+			writeVarLong(output, ((Integer) holdIndex.get(holds1.next())).intValue());
+		}
+	}
+
+	/*
+	 * Looks up the index of an id
+	 */
+	private static int index(Map index, String id) throws IOException {
+		Integer position = (Integer) index.get(id);
+		if (position == null) {
+			throw new IOException("Dangling reference to " + id);
+		}
+		return position.intValue();
+	}
+
+	/*
+	 * Reads a string reference
+	 */
+	private static String readString(DataInput input, String[] strings) throws IOException {
+		int reference = readInt(input);
+		return reference == 0 ? null : strings[reference - 1];
+	}
+
+	/*
+	 * Reads a varint that must fit in an int
+	 */
+	private static int readInt(DataInput input) throws IOException {
+		long value = readVarLong(input);
+		if (value > Integer.MAX_VALUE) {
+			throw new IOException("Value out of range " + value);
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Writes a non-negative long in 7-bit groups, low group first
+	 * 
+	 * @param output
+	 *            the stream to be written to
+	 * @param value
+	 *            the value
+	 * @throws IOException
+	 *             if the stream could not be written
+	 */
+	public static void writeVarLong(DataOutput output, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			output.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		output.writeByte((int) value);
+	}
+
+	/**
+	 * Reads a long written by writeVarLong
+	 * 
+	 * @param input
+	 *            the stream to be read from
+	 * @return the value
+	 * @throws IOException
+	 *             if the stream could not be read
+	 */
+	public static long readVarLong(DataInput input) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int group = input.readUnsignedByte();
+			value |= (long) (group & 0x7F) << shift;
+			if ((group & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	/*
+	 * Assigns each distinct string an index in order of first use
+	 */
+	private static class StringTable {
+		private Map indexes = new HashMap();
+		private List strings = new ArrayList();
+
+		private void write(DataOutput output, String string) throws IOException {
+			if (string == null) {
+				writeVarLong(output, 0);
+				return;
+			}
+			Integer index = (Integer) indexes.get(string);
+			if (index == null) {
+				index = Integer.valueOf(strings.size());
+				indexes.put(string, index);
+				strings.add(string);
+			}
+			writeVarLong(output, index.intValue() + 1);
+		}
+
+		private int size() {
+			return strings.size();
+		}
+
+		private Iterator iterator() {
+			return strings.iterator();
+		}
+	}
+}
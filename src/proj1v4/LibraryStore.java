@@ -0,0 +1,765 @@
+package src.proj1v4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+/**
+ *
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.
+ */
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A read-only, memory-mapped store of books and members. Opening a store maps
+ * the file and reads only its header; a book or member is decoded the first
+ * time it is looked up by id, together with the books and members it refers
+ * to, and takes the position it has in the file. Listing the whole catalog or
+ * member list loads everything that is left. Changes made after opening live
+ * in memory and are persisted by the journal or by saving, as usual; writing
+ * a new store copies the records that are still not loaded straight from this
+ * one.
+ * 
+ * Looking up a book or member that is already loaded takes no lock. The
+ * objects created by a load are marked unfinished until all of them have
+ * been filled in, and a lookup that finds one of those waits for the load.
+ * 
+ * The file starts with a fixed header (magic "LIBM", version, next member id,
+ * book and member counts, and the positions of four index arrays). Records
+ * follow; counts and times are varints and strings are a varint of the UTF-8
+ * length plus one, 0 meaning null. Each index array holds one 8-byte record
+ * position per book or member, either in catalog order or sorted by id.
+ * 
+ * <pre>
+ * book:   id, title, author, borrower id, due time,
+ *         hold count, (member id, valid until)
+ * member: id, name, address, phone, borrowed count, book ids,
+ *         hold count, book ids, transaction count,
+ *         (type, title, book id, time)
+ * </pre>
+ * 
+ * Version 1 stores, whose transactions have no book id, can still be opened.
+ * Their member records are not copied raw when the library is written, so
+ * members are loaded first.
+ *
+ */
+public class LibraryStore {
+	public static final String STORE_FILE = "LibraryStore";
+	private static final int MAGIC = 0x4c49424d;
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 52;
+	private static final int SEGMENT_SHIFT = 30;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+	private MappedByteBuffer[] segments;
+	private int version;
+	private int bookCount;
+	private int memberCount;
+	private long bookOrder;
+	private long bookSorted;
+	private long memberOrder;
+	private long memberSorted;
+	private Set seenBooks = new HashSet();
+	private Set seenMembers = new HashSet();
+	private Map pendingBooks = new LinkedHashMap();
+	private Map pendingMembers = new LinkedHashMap();
+	private Set unfinishedBooks = Collections.newSetFromMap(new ConcurrentHashMap());
+	private Set unfinishedMembers = Collections.newSetFromMap(new ConcurrentHashMap());
+	private boolean draining;
+
+	/*
+	 * Maps the file in segments of 1 GB so that files larger than 2 GB can be
+	 * read
+	 */
+	private LibraryStore(FileChannel channel) throws IOException {
+		long size = channel.size();
+		segments = new MappedByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+		for (int index = 0; index < segments.length; index++) {
+			long start = (long) index << SEGMENT_SHIFT;
+			segments[index] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_MASK + 1, size - start));
+		}
+		if (size < HEADER_SIZE || readFixedInt(0) != MAGIC) {
+			throw new IOException("Not a library store");
+		}
+		version = readFixedInt(4);
+		if (version != 1 && version != VERSION) {
+			throw new IOException("Unsupported store version " + version);
+		}
+		bookCount = readFixedInt(12);
+		memberCount = readFixedInt(16);
+		bookOrder = readFixedLong(20);
+		bookSorted = readFixedLong(28);
+		memberOrder = readFixedLong(36);
+		memberSorted = readFixedLong(44);
+	}
+
+	/**
+	 * Opens a store file and makes the catalog and member list load from it.
+	 * The catalog and member list should be empty, so this is meant to be
+	 * called at startup.
+	 * 
+	 * @param fileName
+	 *            name of the file
+	 * @return the Library object, or null if the file could not be opened
+	 */
+	public static Library open(String fileName) {
+		try {
+			RandomAccessFile file = new RandomAccessFile(fileName, "r");
+			LibraryStore store;
+			try {
+				store = new LibraryStore(file.getChannel());
+			} finally {
+				file.close();
+			}
+			Library.forgetTransactions();
+			Library library = Library.instance();
+			MemberIdServer.restore(store.readFixedInt(8));
+			Catalog.instance().attach(store, store.bookCount);
+			MemberList.instance().attach(store, store.memberCount);
+			return library;
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the library to a store file. The books and members that are still
+	 * in the store the library was opened from are copied from it without
+	 * being loaded. The file is written under a temporary name and renamed
+	 * when complete, so it may be the file the library was opened from.
+	 * 
+	 * @param fileName
+	 *            name of the file
+	 * @return true iff the data could be saved
+	 */
+	public static boolean write(String fileName) {
+		String temporary = fileName + ".tmp";
+		try {
+			RandomAccessFile file = new RandomAccessFile(temporary, "rw");
+			try {
+				file.setLength(0);
+				LibraryStore source = attached();
+				if (source == null) {
+					write(file.getChannel(), null);
+				} else {
+					// holds up loading while the store is read, so that what
+					// is loaded and what is copied do not change
+					synchronized (source) {
+						if (source.version != VERSION) {
+							source.loadAllMembers();
+						}
+						write(file.getChannel(), source);
+					}
+				}
+				file.getFD().sync();
+			} finally {
+				file.close();
+			}
+			Files.move(Paths.get(temporary), Paths.get(fileName), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the store that books or members are still loaded from
+	 * 
+	 * @return the store, or null if everything is loaded
+	 */
+	static LibraryStore attached() {
+		LibraryStore store = Catalog.instance().store();
+		return store != null ? store : MemberList.instance().store();
+	}
+
+	/**
+	 * Checks whether a file is a store file
+	 * 
+	 * @param fileName
+	 *            name of the file
+	 * @return true iff the file starts like a store file
+	 */
+	static boolean isStore(String fileName) {
+		try {
+			RandomAccessFile file = new RandomAccessFile(fileName, "r");
+			try {
+				return file.length() >= HEADER_SIZE && file.readInt() == MAGIC;
+			} finally {
+				file.close();
+			}
+		} catch (IOException ioe) {
+			return false;
+		}
+	}
+
+	/*
+	 * Writes the records, then the index arrays, then the header. Books and
+	 * members keep their positions; a position that is empty is either still
+	 * in the source store, and its record is copied, or belongs to a removed
+	 * book.
+	 */
+	private static void write(FileChannel channel, LibraryStore source) throws IOException {
+		List books = Catalog.instance().slots();
+		List members = MemberList.instance().positions();
+		channel.position(HEADER_SIZE);
+		long[] bookOffsets = new long[books.size()];
+		String[] bookIds = new String[books.size()];
+		int bookTotal = 0;
+		for (int index = 0; index < books.size(); index++) {
+			Book book = (Book) books.get(index);
+			String id = null;
+			ByteBuffer record = null;
+			if (book != null) {
+				id = book.getId();
+				record = encode(book);
+			} else if (source != null && index < source.bookCount) {
+				id = source.bookId(index);
+				if (!source.seenBooks.contains(id)) {
+					record = source.bookRecord(index);
+				}
+			}
+			if (record == null) {
+				continue;
+			}
+			bookIds[bookTotal] = id;
+			bookOffsets[bookTotal++] = channel.position();
+			writeRecord(channel, record);
+		}
+		bookOffsets = Arrays.copyOf(bookOffsets, bookTotal);
+		bookIds = Arrays.copyOf(bookIds, bookTotal);
+		long[] memberOffsets = new long[members.size()];
+		String[] memberIds = new String[members.size()];
+		for (int index = 0; index < memberOffsets.length; index++) {
+			Member member = (Member) members.get(index);
+			memberOffsets[index] = channel.position();
+			if (member != null) {
+				memberIds[index] = member.getId();
+				writeRecord(channel, encode(member));
+			} else {
+				memberIds[index] = source.memberId(index);
+				writeRecord(channel, source.memberRecord(index));
+			}
+		}
+		long bookOrder = writeIndex(channel, bookOffsets);
+		long bookSorted = writeIndex(channel, sortById(bookOffsets, bookIds));
+		long memberOrder = writeIndex(channel, memberOffsets);
+		long memberSorted = writeIndex(channel, sortById(memberOffsets, memberIds));
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).putInt(MemberIdServer.instance().getNextId());
+		header.putInt(bookOffsets.length).putInt(memberOffsets.length);
+		header.putLong(bookOrder).putLong(bookSorted).putLong(memberOrder).putLong(memberSorted);
+		header.flip();
+		channel.position(0);
+		writeRecord(channel, header);
+	}
+
+	/**
+	 * Looks up a book, loading it if it has not been loaded yet
+	 * 
+	 * @param bookId
+	 *            id of the book
+	 * @return the book, or null if the store does not have it or it was
+	 *         loaded and later removed
+	 */
+	public Book loadBook(String bookId) {
+		Book book = Catalog.instance().findLoaded(bookId);
+		if (book != null && !unfinishedBooks.contains(bookId)) {
+			return book;
+		}
+		synchronized (this) {
+			book = book(bookId);
+			drain();
+			return book;
+		}
+	}
+
+	/**
+	 * Looks up a member, loading it if it has not been loaded yet
+	 * 
+	 * @param memberId
+	 *            id of the member
+	 * @return the member, or null if the store does not have it
+	 */
+	public Member loadMember(String memberId) {
+		Member member = MemberList.instance().findLoaded(memberId);
+		if (member != null && !unfinishedMembers.contains(memberId)) {
+			return member;
+		}
+		synchronized (this) {
+			member = member(memberId);
+			drain();
+			return member;
+		}
+	}
+
+	/**
+	 * Loads every book that has not been loaded yet, in catalog order
+	 */
+	public synchronized void loadAllBooks() {
+		for (int index = 0; index < bookCount; index++) {
+			long offset = readFixedLong(bookOrder + 8L * index);
+			if (!seenBooks.contains(new Cursor(offset).readString())) {
+				shellBook(offset, index);
+			}
+		}
+		drain();
+	}
+
+	/**
+	 * Loads every member that has not been loaded yet, in member list order
+	 */
+	public synchronized void loadAllMembers() {
+		for (int index = 0; index < memberCount; index++) {
+			long offset = readFixedLong(memberOrder + 8L * index);
+			if (!seenMembers.contains(new Cursor(offset).readString())) {
+				shellMember(offset, index);
+			}
+		}
+		drain();
+	}
+
+	/*
+	 * Returns a book, creating it from its record if it is not loaded. Its
+	 * borrower and holds are filled in by drain.
+	 */
+	private Book book(String bookId) {
+		Book book = Catalog.instance().findLoaded(bookId);
+		if (book != null || seenBooks.contains(bookId)) {
+			return book;
+		}
+		long offset = find(bookSorted, bookCount, bookId);
+		return offset < 0 ? null : shellBook(offset, position(bookOrder, bookCount, offset));
+	}
+
+	/*
+	 * Returns a member, creating it from its record if it is not loaded. Its
+	 * books, holds and transactions are filled in by drain.
+	 */
+	private Member member(String memberId) {
+		Member member = MemberList.instance().findLoaded(memberId);
+		if (member != null || seenMembers.contains(memberId)) {
+			return member;
+		}
+		long offset = find(memberSorted, memberCount, memberId);
+		return offset < 0 ? null : shellMember(offset, position(memberOrder, memberCount, offset));
+	}
+
+	/*
+	 * Creates a book from the start of its record and queues the rest. The
+	 * book is marked unfinished before the catalog can hand it out.
+	 */
+	private Book shellBook(long offset, int position) {
+		Cursor cursor = new Cursor(offset);
+		String id = cursor.readString();
+		String title = cursor.readString();
+		String author = cursor.readString();
+		Book book = new Book(StringPool.instance().intern(title), StringPool.instance().intern(author), id);
+		seenBooks.add(id);
+		unfinishedBooks.add(id);
+		Catalog.instance().insertLoaded(book, position);
+		pendingBooks.put(id, Long.valueOf(cursor.position));
+		return book;
+	}
+
+	/*
+	 * Creates a member from the start of its record and queues the rest
+	 */
+	private Member shellMember(long offset, int position) {
+		Cursor cursor = new Cursor(offset);
+		String id = cursor.readString();
+		String name = cursor.readString();
+		String address = cursor.readString();
+		String phone = cursor.readString();
+		Member member = new Member(name, address, phone, id);
+		seenMembers.add(id);
+		unfinishedMembers.add(id);
+		MemberList.instance().insertLoaded(member, position);
+		pendingMembers.put(id, Long.valueOf(cursor.position));
+		return member;
+	}
+
+	/*
+	 * Fills in the objects created so far, then marks them finished. Books
+	 * are done first because a member's holds are taken from the queues of
+	 * the books.
+	 */
+	private void drain() {
+		if (draining) {
+			return;
+		}
+		draining = true;
+		try {
+			while (!pendingBooks.isEmpty() || !pendingMembers.isEmpty()) {
+				if (!pendingBooks.isEmpty()) {
+					fillBook((String) pendingBooks.keySet().iterator().next());
+				} else {
+					fillMember((String) pendingMembers.keySet().iterator().next());
+				}
+			}
+			unfinishedBooks.clear();
+			unfinishedMembers.clear();
+		} finally {
+			draining = false;
+		}
+	}
+
+	/*
+	 * Sets the borrower and holds of a book, unless already done
+	 */
+	private void fillBook(String bookId) {
+		Long position = (Long) pendingBooks.remove(bookId);
+		if (position == null) {
+			return;
+		}
+		Book book = Catalog.instance().findLoaded(bookId);
+		Cursor cursor = new Cursor(position.longValue());
+		String borrower = cursor.readString();
+		long dueTime = cursor.readVarLong();
+		if (borrower != null) {
+			book.restoreLoan(member(borrower), dueTime);
+		}
+		for (int count = cursor.readInt(); count > 0; count--) {
+			Member member = member(cursor.readString());
+			Hold hold = new Hold(member, book, cursor.readVarLong());
+			book.placeHold(hold);
+			Library.instance().trackHold(hold);
+		}
+	}
+
+	/*
+	 * Sets the borrowed books, holds and transactions of a member, unless
+	 * already done
+	 */
+	private void fillMember(String memberId) {
+		Long position = (Long) pendingMembers.remove(memberId);
+		if (position == null) {
+			return;
+		}
+		Member member = MemberList.instance().findLoaded(memberId);
+		Cursor cursor = new Cursor(position.longValue());
+		for (int count = cursor.readInt(); count > 0; count--) {
+			member.restoreBorrowed(book(cursor.readString()));
+		}
+		for (int count = cursor.readInt(); count > 0; count--) {
+			String bookId = cursor.readString();
+			Book book = book(bookId);
+			fillBook(bookId);
+			Hold hold = book == null ? null : book.getHold(memberId);
+			if (hold != null) {
+				member.restoreHold(hold);
+			}
+		}
+		for (int count = cursor.readInt(); count > 0; count--) {
+			String type = cursor.readString();
+			String title = cursor.readString();
+			String bookId = version == 1 ? null : cursor.readString();
+			member.restoreTransaction(new Transaction(type, title, bookId, null, cursor.readVarLong()));
+		}
+	}
+
+	/*
+	 * Binary search of an index array sorted by id
+	 */
+	private long find(long index, int count, String id) {
+		int low = 0;
+		int high = count - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			long offset = readFixedLong(index + 8L * middle);
+			int comparison = new Cursor(offset).readString().compareTo(id);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return offset;
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Binary search of an index array in catalog or member list order, whose
+	 * record positions are ascending; returns the position in the list of the
+	 * record at a given offset
+	 */
+	private int position(long index, int count, long offset) {
+		int low = 0;
+		int high = count - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (readFixedLong(index + 8L * middle) < offset) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/*
+	 * Returns the id of the book at a position in catalog order
+	 */
+	private String bookId(int position) {
+		return new Cursor(readFixedLong(bookOrder + 8L * position)).readString();
+	}
+
+	/*
+	 * Returns the id of the member at a position in member list order
+	 */
+	private String memberId(int position) {
+		return new Cursor(readFixedLong(memberOrder + 8L * position)).readString();
+	}
+
+	/*
+	 * Returns the record of the book at a position in catalog order. Records
+	 * are stored back to back, books then members then the index arrays.
+	 */
+	private ByteBuffer bookRecord(int position) {
+		long start = readFixedLong(bookOrder + 8L * position);
+		if (position + 1 < bookCount) {
+			return copy(start, readFixedLong(bookOrder + 8L * (position + 1)));
+		}
+		return copy(start, memberCount > 0 ? readFixedLong(memberOrder) : bookOrder);
+	}
+
+	/*
+	 * Returns the record of the member at a position in member list order
+	 */
+	private ByteBuffer memberRecord(int position) {
+		long start = readFixedLong(memberOrder + 8L * position);
+		return copy(start, position + 1 < memberCount ? readFixedLong(memberOrder + 8L * (position + 1)) : bookOrder);
+	}
+
+	/*
+	 * Copies a range of the file into a buffer
+	 */
+	private ByteBuffer copy(long start, long end) {
+		byte[] bytes = new byte[(int) (end - start)];
+		int done = 0;
+		while (done < bytes.length) {
+			long position = start + done;
+			ByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)].duplicate();
+			segment.position((int) (position & SEGMENT_MASK));
+			int length = Math.min(bytes.length - done, segment.remaining());
+			segment.get(bytes, done, length);
+			done += length;
+		}
+		return ByteBuffer.wrap(bytes);
+	}
+
+	/*
+	 * Reads one byte of the file
+	 */
+	private byte byteAt(long position) {
+		return segments[(int) (position >>> SEGMENT_SHIFT)].get((int) (position & SEGMENT_MASK));
+	}
+
+	/*
+	 * Reads a 4-byte big-endian int
+	 */
+	private int readFixedInt(long position) {
+		int value = 0;
+		for (int index = 0; index < 4; index++) {
+			value = (value << 8) | (byteAt(position + index) & 0xFF);
+		}
+		return value;
+	}
+
+	/*
+	 * Reads an 8-byte big-endian long
+	 */
+	private long readFixedLong(long position) {
+		long value = 0;
+		for (int index = 0; index < 8; index++) {
+			value = (value << 8) | (byteAt(position + index) & 0xFF);
+		}
+		return value;
+	}
+
+	/*
+	 * Reads consecutive fields of a record
+	 */
+	private class Cursor {
+		private long position;
+
+		private Cursor(long position) {
+			this.position = position;
+		}
+
+		private long readVarLong() {
+			long value = 0;
+			for (int shift = 0;; shift += 7) {
+				int group = byteAt(position++);
+				value |= (long) (group & 0x7F) << shift;
+				if ((group & 0x80) == 0) {
+					return value;
+				}
+			}
+		}
+
+		private int readInt() {
+			return (int) readVarLong();
+		}
+
+		private String readString() {
+			int length = readInt();
+			if (length == 0) {
+				return null;
+			}
+			byte[] bytes = new byte[length - 1];
+			for (int index = 0; index < bytes.length; index++) {
+				bytes[index] = byteAt(position++);
+			}
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+
+	/*
+	 * Encodes the record of a book
+	 */
+	private static ByteBuffer encode(Book book) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(bytes);
+		writeString(output, book.getId());
+		writeString(output, book.getTitle());
+		writeString(output, book.getAuthor());
+		writeString(output, book.getBorrower() == null ? null : book.getBorrower().getId());
+		LibrarySnapshot.writeVarLong(output, book.getDueTime());
+		List holds = Catalog.snapshot(book.getHolds());
+		LibrarySnapshot.writeVarLong(output, holds.size());
+		for (Iterator iterator = holds.iterator(); iterator.hasNext();) {
+			Hold hold = (Hold) iterator.next();
+			writeString(output, hold.getMember().getId());
+			LibrarySnapshot.writeVarLong(output, hold.getTime());
+		}
+		return ByteBuffer.wrap(bytes.toByteArray());
+	}
+
+	/*
+	 * Encodes the record of a member
+	 */
+	private static ByteBuffer encode(Member member) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(bytes);
+		writeString(output, member.getId());
+		writeString(output, member.getName());
+		writeString(output, member.getAddress());
+		writeString(output, member.getPhone());
+		List borrowed = Catalog.snapshot(member.getBooksIssued());
+		LibrarySnapshot.writeVarLong(output, borrowed.size());
+		for (Iterator iterator = borrowed.iterator(); iterator.hasNext();) {
+			writeString(output, ((Book) iterator.next()).getId());
+		}
+		List holds = Catalog.snapshot(member.getBooksOnHold());
+		LibrarySnapshot.writeVarLong(output, holds.size());
+		for (Iterator iterator = holds.iterator(); iterator.hasNext();) {
+			writeString(output, ((Book) iterator.next()).getId());
+		}
+		List transactions = Catalog.snapshot(member.getTransactions());
+		LibrarySnapshot.writeVarLong(output, transactions.size());
+		for (Iterator iterator = transactions.iterator(); iterator.hasNext();) {
+			Transaction transaction = (Transaction) iterator.next();
+			writeString(output, transaction.getType());
+			writeString(output, transaction.getTitle());
+			writeString(output, transaction.getBookId());
+			LibrarySnapshot.writeVarLong(output, transaction.getTime());
+		}
+		return ByteBuffer.wrap(bytes.toByteArray());
+	}
+
+	/*
+	 * Writes a string as its UTF-8 length plus one and the bytes
+	 */
+	private static void writeString(DataOutputStream output, String string) throws IOException {
+		if (string == null) {
+			LibrarySnapshot.writeVarLong(output, 0);
+			return;
+		}
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		LibrarySnapshot.writeVarLong(output, bytes.length + 1);
+		output.write(bytes);
+	}
+
+	/*
+	 * Writes a buffer completely
+	 */
+	private static void writeRecord(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/*
+	 * Writes an index array and returns its position
+	 */
+	private static long writeIndex(FileChannel channel, long[] offsets) throws IOException {
+		long position = channel.position();
+		ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+		for (int index = 0; index < offsets.length; index++) {
+			if (!buffer.hasRemaining()) {
+				buffer.flip();
+				writeRecord(channel, buffer);
+				buffer.clear();
+			}
+			buffer.putLong(offsets[index]);
+		}
+		buffer.flip();
+		writeRecord(channel, buffer);
+		return position;
+	}
+
+	/*
+	 * Reorders record positions so that their ids are ascending
+	 */
+	private static long[] sortById(long[] offsets, final String[] ids) {
+		Integer[] order = new Integer[offsets.length];
+		for (int index = 0; index < order.length; index++) {
+			order[index] = Integer.valueOf(index);
+		}
+		Arrays.sort(order, new Comparator() {
+			@Override
+			public int compare(Object first, Object second) {
+				return ids[((Integer) first).intValue()].compareTo(ids[((Integer) second).intValue()]);
+			}
+		});
+		long[] sorted = new long[offsets.length];
+		for (int index = 0; index < sorted.length; index++) {
+			sorted[index] = offsets[order[index].intValue()];
+		}
+		return sorted;
+	}
+}
@@ -0,0 +1,291 @@
+package src.proj1v4;
+
+/**
+ *
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates a synthetic workload and replays it against the library, to see
+ * how the library holds up under realistic traffic.
+ * 
+ * The library is filled with books and members first. Each title has a few
+ * copies, and the titles are requested with a Zipfian popularity: the title of
+ * rank r is asked for in proportion to 1 / r^skew. Each thread then replays
+ * its own stream of operations: issues, returns, renewals and holds, where a
+ * hold is placed with the given probability and the rest is split among the
+ * others. Returns and renewals are made on the books the thread issued, and a
+ * return that leaves a book with a hold is followed by processing the hold.
+ * 
+ * The throughput and, for each kind of operation, the number completed and
+ * the latency percentiles are printed:
+ * 
+ * <pre>
+ * java -cp bin src.proj1v4.LibraryWorkload [operations [books [members [threads [skew [holdRatio]]]]]]
+ * </pre>
+ * 
+ * The defaults are 1000000 operations on 100000 books and 100000 members by
+ * 4 threads, with a skew of 1.0 and a hold ratio of 0.1. The streams are
+ * generated from a fixed seed before the replay starts, so that runs with the
+ * same arguments issue the same requests.
+ *
+ */
+public class LibraryWorkload {
+	private static final int COPIES = 4;
+	private static final int HOLD_DURATION = 7;
+	private static final long SEED = 42;
+	private static final int ISSUE = 0;
+	private static final int RETURN = 1;
+	private static final int RENEW = 2;
+	private static final int PLACE_HOLD = 3;
+	private static final int PROCESS_HOLD = 4;
+	private static final String[] NAMES = { "issueBook", "returnBook", "renewBook", "placeHold", "processHold" };
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+	private Library library = Library.instance();
+	private String[] bookIds;
+	private String[] memberIds;
+	private int titles;
+	private double[] popularity;
+
+	/**
+	 * Runs the workload
+	 * 
+	 * @param args
+	 *            the number of operations, books, members and threads, the
+	 *            skew of the popularity of titles and the hold ratio
+	 */
+	public static void main(String[] args) {
+		int operations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int books = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		int members = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+		double skew = args.length > 4 ? Double.parseDouble(args[4]) : 1.0;
+		double holdRatio = args.length > 5 ? Double.parseDouble(args[5]) : 0.1;
+		LibraryWorkload workload = new LibraryWorkload();
+		workload.populate(books, members, skew);
+		workload.replay(operations, threads, holdRatio);
+	}
+
+	/*
+	 * Adds the books and members, and computes the cumulative popularity of
+	 * the titles
+	 */
+	private void populate(int books, int members, double skew) {
+		titles = Math.max(1, books / COPIES);
+		bookIds = new String[titles * COPIES];
+		for (int title = 0; title < titles; title++) {
+			for (int copy = 0; copy < COPIES; copy++) {
+				int index = title * COPIES + copy;
+				bookIds[index] = "B" + index;
+				library.addBook("Title " + title, "Author " + (title % 1000), bookIds[index]);
+			}
+		}
+		memberIds = new String[members];
+		for (int index = 0; index < members; index++) {
+			memberIds[index] = library.addMember("Member " + index, "Address " + index, "Phone " + index).getId();
+		}
+		popularity = new double[titles];
+		double total = 0;
+		for (int rank = 0; rank < titles; rank++) {
+			total += 1 / Math.pow(rank + 1, skew);
+			popularity[rank] = total;
+		}
+		for (int rank = 0; rank < titles; rank++) {
+			popularity[rank] /= total;
+		}
+		System.out.println("Library of " + bookIds.length + " books (" + titles + " titles) and " + members
+				+ " members, skew " + skew);
+	}
+
+	/*
+	 * Generates the streams, replays them on the given number of threads and
+	 * prints the results
+	 */
+	private void replay(int operations, int threads, double holdRatio) {
+		Stream[] streams = new Stream[threads];
+		Thread[] workers = new Thread[threads];
+		for (int thread = 0; thread < threads; thread++) {
+			int count = operations / threads + (thread < operations % threads ? 1 : 0);
+			streams[thread] = new Stream(count, holdRatio, new Random(SEED + thread));
+			workers[thread] = new Thread(streams[thread], "workload-" + thread);
+		}
+		long start = System.nanoTime();
+		for (int thread = 0; thread < threads; thread++) {
+			workers[thread].start();
+		}
+		try {
+			for (int thread = 0; thread < threads; thread++) {
+				workers[thread].join();
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("%d operations on %d threads in %.2f s, %.0f operations/s", operations,
+				threads, seconds, operations / seconds));
+		System.out.println(String.format("%-12s %9s %9s %9s %9s %9s %9s %9s", "operation", "count", "completed",
+				"p50 us", "p90 us", "p99 us", "p99.9 us", "max us"));
+		for (int type = 0; type < NAMES.length; type++) {
+			print(type, streams);
+		}
+	}
+
+	/*
+	 * Prints the count, completions and latency percentiles of one kind of
+	 * operation over all threads
+	 */
+	private void print(int type, Stream[] streams) {
+		int count = 0;
+		int completed = 0;
+		for (int thread = 0; thread < streams.length; thread++) {
+			count += streams[thread].counts[type];
+			completed += streams[thread].completed[type];
+		}
+		if (count == 0) {
+			return;
+		}
+		long[] latencies = new long[count];
+		int next = 0;
+		for (int thread = 0; thread < streams.length; thread++) {
+			System.arraycopy(streams[thread].latencies[type], 0, latencies, next, streams[thread].counts[type]);
+			next += streams[thread].counts[type];
+		}
+		Arrays.sort(latencies);
+		StringBuilder line = new StringBuilder(String.format("%-12s %9d %9d", NAMES[type], count, completed));
+		for (int index = 0; index < PERCENTILES.length; index++) {
+			int rank = (int) Math.ceil(PERCENTILES[index] / 100 * count) - 1;
+			line.append(String.format(" %9.1f", latencies[Math.max(0, rank)] / 1000.0));
+		}
+		line.append(String.format(" %9.1f", latencies[count - 1] / 1000.0));
+		System.out.println(line);
+	}
+
+	/*
+	 * Picks a title by popularity and returns the index of a random copy
+	 */
+	private int pickBook(Random random) {
+		int title = Arrays.binarySearch(popularity, random.nextDouble());
+		if (title < 0) {
+			title = Math.min(-title - 1, titles - 1);
+		}
+		return title * COPIES + random.nextInt(COPIES);
+	}
+
+	/*
+	 * The operations of one thread, generated up front, and what happened
+	 * when they were replayed
+	 */
+	private class Stream implements Runnable {
+		private byte[] types;
+		private int[] books;
+		private int[] members;
+		private Random random;
+		private List loans = new ArrayList();
+		private int[] counts = new int[NAMES.length];
+		private int[] completed = new int[NAMES.length];
+		private long[][] latencies = new long[NAMES.length][];
+
+		/*
+		 * Generates the operations; a hold is placed with probability
+		 * holdRatio, and otherwise 45% are issues, 40% returns and 15%
+		 * renewals
+		 */
+		private Stream(int count, double holdRatio, Random random) {
+			this.random = random;
+			types = new byte[count];
+			books = new int[count];
+			members = new int[count];
+			for (int index = 0; index < count; index++) {
+				double choice = random.nextDouble();
+				if (choice < holdRatio) {
+					types[index] = PLACE_HOLD;
+				} else {
+					choice = (choice - holdRatio) / (1 - holdRatio);
+					types[index] = (byte) (choice < 0.45 ? ISSUE : choice < 0.85 ? RETURN : RENEW);
+				}
+				books[index] = pickBook(random);
+				members[index] = random.nextInt(memberIds.length);
+			}
+			for (int type = 0; type < NAMES.length; type++) {
+				latencies[type] = new long[type == PROCESS_HOLD ? count / 2 + 1 : count];
+			}
+		}
+
+		/*
+		 * Replays the operations
+		 */
+		public void run() {
+			for (int index = 0; index < types.length; index++) {
+				String bookId = bookIds[books[index]];
+				String memberId = memberIds[members[index]];
+				int[] loan = null;
+				if ((types[index] == RETURN || types[index] == RENEW) && !loans.isEmpty()) {
+					int position = random.nextInt(loans.size());
+					loan = (int[]) loans.get(position);
+					bookId = bookIds[loan[0]];
+					memberId = memberIds[loan[1]];
+					if (types[index] == RETURN) {
+						loans.set(position, loans.get(loans.size() - 1));
+						loans.remove(loans.size() - 1);
+					}
+				}
+				long start = System.nanoTime();
+				boolean done;
+				int result = 0;
+				switch (types[index]) {
+				case ISSUE:
+					done = library.issueBook(memberId, bookId) != null;
+					break;
+				case RETURN:
+					result = library.returnBook(bookId);
+					done = result == Library.OPERATION_COMPLETED || result == Library.BOOK_HAS_HOLD;
+					break;
+				case RENEW:
+					done = library.renewBook(bookId, memberId) != null;
+					break;
+				default:
+					done = library.placeHold(memberId, bookId, HOLD_DURATION) == Library.HOLD_PLACED;
+					break;
+				}
+				record(types[index], start, done);
+				if (types[index] == ISSUE && done) {
+					loans.add(new int[] { books[index], members[index] });
+				} else if (result == Library.BOOK_HAS_HOLD && counts[PROCESS_HOLD] < latencies[PROCESS_HOLD].length) {
+					start = System.nanoTime();
+					done = library.processHold(bookId) != null;
+					record(PROCESS_HOLD, start, done);
+				}
+			}
+		}
+
+		/*
+		 * Records the latency and outcome of an operation
+		 */
+		private void record(int type, long start, boolean done) {
+			latencies[type][counts[type]++] = System.nanoTime() - start;
+			if (done) {
+				completed[type]++;
+			}
+		}
+	}
+}
@@ -19,12 +19,19 @@ package src.proj1v4;
  * The authors do not make any claims regarding the correctness of the code in this module
  * and are not responsible for any loss or damage resulting from its use.  
  */
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.Calendar;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 
 public class Member implements Serializable {
 	private static final long serialVersionUID = 1L;
@@ -32,10 +39,13 @@ public class Member implements Serializable {
 	private String address;
 	private String phone;
 	private String id;
-	private static final String MEMBER_STRING = "M";
+	static final String MEMBER_STRING = "M";
 	private List booksBorrowed = new LinkedList();
-	private List booksOnHold = new LinkedList();
-	private List transactions = new LinkedList();
+	private List booksOnHold;
+	private List transactions;
+	private transient Map holdIndex = new LinkedHashMap();
+	private transient TransactionLog transactionLog = new TransactionLog();
+	private transient String summary;
 
 	/**
 	 * Represents a single member
@@ -54,6 +64,26 @@ public class Member implements Serializable {
 		id = MEMBER_STRING + (MemberIdServer.instance()).getId();
 	}
 
+	/**
+	 * Creates a member with a known id, used when loading saved data and for
+	 * ids from a reserved block
+	 * 
+	 * @param name
+	 *            name of the member
+	 * @param address
+	 *            address of the member
+	 * @param phone
+	 *            phone number of the member
+	 * @param id
+	 *            id of the member
+	 */
+	Member(String name, String address, String phone, String id) {
+		this.name = name;
+		this.address = address;
+		this.phone = phone;
+		this.id = id;
+	}
+
 	/**
 	 * Stores the book as issued to the member
 	 * 
@@ -64,7 +94,7 @@ public class Member implements Serializable {
 	 */
 	public boolean issue(Book book) {
 		if (booksBorrowed.add(book)) {
-			transactions.add(new Transaction("Book issued ", book.getTitle()));
+			record("Book issued ", book);
 			return true;
 		}
 		return false;
@@ -79,7 +109,7 @@ public class Member implements Serializable {
 	 */
 	public boolean returnBook(Book book) {
 		if (booksBorrowed.remove(book)) {
-			transactions.add(new Transaction("Book returned ", book.getTitle()));
+			record("Book returned ", book);
 			return true;
 		}
 		return false;
@@ -97,7 +127,7 @@ public class Member implements Serializable {
 			Book aBook = (Book) iterator.next();
 			String id = aBook.getId();
 			if (id.equals(book.getId())) {
-				transactions.add(new Transaction("Book renewed ", book.getTitle()));
+				record("Book renewed ", book);
 				return true;
 			}
 		}
@@ -115,10 +145,9 @@ public class Member implements Serializable {
 
 	public Iterator getBooksOnHold() {
 		List booksOnHoldList = new LinkedList();
-		for (ListIterator iterator = booksOnHold.listIterator(); iterator.hasNext();) {
+		for (Iterator iterator = holdIndex().values().iterator(); iterator.hasNext();) {
 			Hold aHold = (Hold) iterator.next();
 			Book aBook = aHold.getBook();
-			String id = aBook.getId();
 
 			booksOnHoldList.add(aBook);
 
@@ -134,8 +163,8 @@ public class Member implements Serializable {
 	 *            the book to be placed a hold
 	 */
 	public void placeHold(Hold hold) {
-		transactions.add(new Transaction("Hold Placed ", hold.getBook().getTitle()));
-		booksOnHold.add(hold);
+		holdIndex().put(hold.getBook().getId(), hold);
+		record("Hold Placed ", hold.getBook());
 	}
 
 	/**
@@ -146,16 +175,62 @@ public class Member implements Serializable {
 	 * @return true iff the hold could be removed
 	 */
 	public boolean removeHold(String bookId) {
-		for (ListIterator iterator = booksOnHold.listIterator(); iterator.hasNext();) {
-			Hold hold = (Hold) iterator.next();
-			String id = hold.getBook().getId();
-			if (id.equals(bookId)) {
-				transactions.add(new Transaction("Hold Removed ", hold.getBook().getTitle()));
-				iterator.remove();
-				return true;
-			}
+		Hold hold = (Hold) holdIndex().remove(bookId);
+		if (hold == null) {
+			return false;
 		}
-		return false;
+		record("Hold Removed ", hold.getBook());
+		return true;
+	}
+
+	/**
+	 * Restores a borrowed book without recording a transaction
+	 * 
+	 * @param book
+	 *            the book borrowed by the member
+	 */
+	void restoreBorrowed(Book book) {
+		booksBorrowed.add(book);
+		forgetSummary();
+	}
+
+	/**
+	 * Restores a hold without recording a transaction
+	 * 
+	 * @param hold
+	 *            the hold placed by the member
+	 */
+	void restoreHold(Hold hold) {
+		holdIndex().put(hold.getBook().getId(), hold);
+		forgetSummary();
+	}
+
+	/**
+	 * Restores a transaction from saved data
+	 * 
+	 * @param transaction
+	 *            the transaction to be appended
+	 */
+	void restoreTransaction(Transaction transaction) {
+		transactionLog.add(TransactionStore.instance().append(transaction.getType(), transaction.getTitle(),
+				transaction.getBookId(), id, transaction.getTime()));
+		forgetSummary();
+	}
+
+	/*
+	 * Records a transaction of the member on a book at the current time
+	 */
+	private void record(String type, Book book) {
+		transactionLog.add(TransactionStore.instance().append(type, book.getTitle(), book.getId(), id,
+				Library.currentTime()));
+		forgetSummary();
+	}
+
+	/*
+	 * Drops the cached summary; called after anything shown in it changes
+	 */
+	private synchronized void forgetSummary() {
+		summary = null;
 	}
 
 	/**
@@ -166,24 +241,11 @@ public class Member implements Serializable {
 	 * @return the iterator to the collection
 	 */
 	public Iterator getTransactions(Calendar date) {
-		List result = new LinkedList();
-		for (Iterator iterator = transactions.iterator(); iterator.hasNext();) {
-			Transaction transaction = (Transaction) iterator.next();
-			if (transaction.onDate(date)) {
-				result.add(transaction);
-			}
-		}
-		return (result.iterator());
+		return (transactionLog.onDate(date).iterator());
 	}
 
 	public Iterator getTransactions() {
-		List result = new LinkedList();
-		for (Iterator iterator = transactions.iterator(); iterator.hasNext();) {
-			Transaction transaction = (Transaction) iterator.next();
-			result.add(transaction);
-
-		}
-		return (result.iterator());
+		return (transactionLog.all().iterator());
 	}
 
 	/**
@@ -230,6 +292,10 @@ public class Member implements Serializable {
 	 */
 	public void setName(String newName) {
 		name = newName;
+		forgetSummary();
+		for (Iterator iterator = booksBorrowed.iterator(); iterator.hasNext();) {
+			((Book) iterator.next()).forgetSummary();
+		}
 	}
 
 	/**
@@ -240,6 +306,7 @@ public class Member implements Serializable {
 	 */
 	public void setAddress(String newAddress) {
 		address = newAddress;
+		forgetSummary();
 	}
 
 	/**
@@ -250,6 +317,7 @@ public class Member implements Serializable {
 	 */
 	public void setPhone(String newPhone) {
 		phone = newPhone;
+		forgetSummary();
 	}
 
 	/**
@@ -264,33 +332,123 @@ public class Member implements Serializable {
 	}
 
 	/**
-	 * String form of the member
+	 * Short form of the member for listings: the details and how many books,
+	 * holds and transactions the member has. It is kept until one of these
+	 * changes.
 	 * 
+	 * @return the summary
 	 */
-	@Override
-	public String toString() {
-		String string = "Member name " + name + " address " + address + " id " + id + "phone " + phone;
-		string += " borrowed: [";
+	public synchronized String getSummary() {
+		if (summary == null) {
+			summary = "Member name " + name + " address " + address + " id " + id + " phone " + phone + " borrowed: "
+					+ booksBorrowed.size() + " holds: " + holdIndex().size() + " transactions: "
+					+ transactionLog.size();
+		}
+		return summary;
+	}
+
+	/**
+	 * Writes the string form of the member to a writer. The transactions are
+	 * fetched from the store a chunk at a time.
+	 * 
+	 * @param output
+	 *            the writer
+	 * @throws IOException
+	 *             if the writer fails
+	 */
+	public void dump(Writer output) throws IOException {
+		output.write("Member name " + name + " address " + address + " id " + id + "phone " + phone);
+		output.write(" borrowed: [");
 		for (Iterator iterator = booksBorrowed.iterator(); iterator.hasNext();) {
 			Book book = (Book) iterator.next();
-			string += " " + book.getTitle();
+			output.write(" " + book.getTitle());
 		}
-		string += "] holds: [";
-		for (Iterator iterator = booksOnHold.iterator(); iterator.hasNext();) {
+		output.write("] holds: [");
+		for (Iterator iterator = holdIndex().values().iterator(); iterator.hasNext();) {
 			Hold hold = (Hold) iterator.next();
-			string += " " + hold.getBook().getTitle();
+			output.write(" " + hold.getBook().getTitle());
+		}
+		output.write("] transactions: [");
+		int size = transactionLog.size();
+		for (int from = 0; from < size; from += Catalog.DUMP_CHUNK) {
+			List chunk = transactionLog.range(from, Math.min(from + Catalog.DUMP_CHUNK, size));
+			for (Iterator iterator = chunk.iterator(); iterator.hasNext();) {
+				output.write(iterator.next().toString());
+			}
 		}
-		string += "] transactions: [";
-		for (Iterator iterator = transactions.iterator(); iterator.hasNext();) {
-			string += iterator.next();
+		output.write(']');
+	}
+
+	/**
+	 * String form of the member, with the titles of the books borrowed and on
+	 * hold and the whole transaction history
+	 * 
+	 */
+	@Override
+	public String toString() {
+		StringWriter string = new StringWriter();
+		try {
+			dump(string);
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
 		}
-		string += "]";
-		return string;
+		return string.toString();
 	}
 
 	public Iterator serveIterator() {
-		Iterator books = booksOnHold.listIterator();
+		Iterator books = holdIndex().values().iterator();
 		return books;
 	}
 
+	/*
+	 * The member's holds in the order they were placed, keyed by book id.
+	 * After deserialization the index is built from the serialized list on
+	 * first use, when the books are guaranteed to be fully read.
+	 */
+	private Map holdIndex() {
+		if (holdIndex == null) {
+			holdIndex = new LinkedHashMap();
+			if (booksOnHold != null) {
+				for (Iterator iterator = booksOnHold.iterator(); iterator.hasNext();) {
+					Hold hold = (Hold) iterator.next();
+					holdIndex.put(hold.getBook().getId(), hold);
+				}
+				booksOnHold = null;
+			}
+		}
+		return holdIndex;
+	}
+
+	/*
+	 * Supports serialization. The holds and transactions are written as
+	 * lists.
+	 * 
+	 * @param output the stream to be written to
+	 */
+	private void writeObject(ObjectOutputStream output) throws IOException {
+		booksOnHold = new LinkedList(holdIndex().values());
+		transactions = new LinkedList(transactionLog.all());
+		output.defaultWriteObject();
+		booksOnHold = null;
+		transactions = null;
+	}
+
+	/*
+	 * Supports serialization. The transactions are moved into the
+	 * TransactionStore right away; unlike books and holds they do not refer
+	 * to objects that may still be being read.
+	 * 
+	 * @param input the stream to be read from
+	 */
+	private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+		input.defaultReadObject();
+		transactionLog = new TransactionLog();
+		if (transactions != null) {
+			for (Iterator iterator = transactions.iterator(); iterator.hasNext();) {
+				restoreTransaction((Transaction) iterator.next());
+			}
+			transactions = null;
+		}
+	}
+
 }
\ No newline at end of file
@@ -19,13 +19,18 @@ package src.proj1v4;
  * and are not responsible for any loss or damage resulting from its use.  
  */
 import java.io.*;
+import java.util.concurrent.atomic.AtomicInteger;
 /**
- * Generates member ids.
+ * Generates member ids. Ids are taken from an atomic counter, so members can
+ * be created from several threads without locking. The counter is the
+ * high-water mark: every id below it has been handed out or reserved.
  * @author Brahma Dathan and Sarnath Ramnath
  *
  */
 public class MemberIdServer implements Serializable {
+  private static final long serialVersionUID = 580531667062784323L;
   private  int idCounter;
+  private transient AtomicInteger nextId;
   private static MemberIdServer server;
   /*
    * Private constructor for singleton pattern
@@ -33,13 +38,14 @@ public class MemberIdServer implements Serializable {
    */
   private MemberIdServer() {
     idCounter = 1;
+    nextId = new AtomicInteger(idCounter);
   }
   /**
    * Supports the singleton pattern
    * 
    * @return the singleton object
    */
-  public static MemberIdServer instance() {
+  public static synchronized MemberIdServer instance() {
     if (server == null) {
       return (server = new MemberIdServer());
     } else {
@@ -51,7 +57,35 @@ public class MemberIdServer implements Serializable {
    * @return id of the member
    */
   public int getId() {
-    return idCounter++;
+    return nextId.getAndIncrement();
+  }
+  /**
+   * Reserves a block of consecutive ids in one step. The ids are not handed
+   * out by getId, so a caller registering many members, or another node,
+   * can use them without going back to the server.
+   * @param count number of ids to reserve
+   * @return the first id of the block
+   */
+  public int reserve(int count) {
+    if (count <= 0) {
+      throw new IllegalArgumentException("count must be positive: " + count);
+    }
+    return nextId.getAndAdd(count);
+  }
+  /**
+   * Returns the id that will be handed out next, without using it up
+   * @return the next id
+   */
+  int getNextId() {
+    return nextId.get();
+  }
+  /**
+   * Replaces the server with one that continues from a known id
+   * @param nextId the id to be handed out next
+   */
+  static void restore(int nextId) {
+    server = new MemberIdServer();
+    server.nextId.set(nextId);
   }
   /** 
    * String form of the collection
@@ -59,7 +93,7 @@ public class MemberIdServer implements Serializable {
   */
   @Override
   public String toString() {
-    return ("IdServer" + idCounter);
+    return ("IdServer" + nextId.get());
   }
   /**
    * Retrieves the server object
@@ -81,6 +115,7 @@ public class MemberIdServer implements Serializable {
    */
   private void writeObject(java.io.ObjectOutputStream output) throws IOException {
     try {
+      idCounter = nextId.get();
       output.defaultWriteObject();
       output.writeObject(server);
     } catch(IOException ioe) {
@@ -94,6 +129,7 @@ public class MemberIdServer implements Serializable {
   private void readObject(java.io.ObjectInputStream input) throws IOException, ClassNotFoundException {
     try {
       input.defaultReadObject();
+      nextId = new AtomicInteger(idCounter);
       if (server == null) {
         server = (MemberIdServer) input.readObject();
       } else {
@@ -2,6 +2,8 @@ package src.proj1v4;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.io.StringWriter;
+import java.io.Writer;
 /**
  *
  * @author Brahma Dathan and Sarnath Ramnath
@@ -21,9 +23,13 @@ import java.io.Serializable;
  * The authors do not make any claims regarding the correctness of the code in this module
  * and are not responsible for any loss or damage resulting from its use.
  */
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The collection class for Member objects
@@ -34,7 +40,11 @@ import java.util.List;
 public class MemberList implements Serializable {
 	private static final long serialVersionUID = 1L;
 	private List members = new LinkedList();
+	private transient Map memberIndex = new ConcurrentHashMap();
+	private transient List memberPositions = new ArrayList();
+	private transient volatile LibraryStore store;
 	private static MemberList memberList;
+	private static final char PAGE_TOKEN = 'M';
 
 	/*
 	 * Private constructor for singleton pattern
@@ -48,7 +58,7 @@ public class MemberList implements Serializable {
 	 *
 	 * @return the singleton object
 	 */
-	public static MemberList instance() {
+	public static synchronized MemberList instance() {
 		if (memberList == null) {
 			return (memberList = new MemberList());
 		} else {
@@ -65,18 +75,70 @@ public class MemberList implements Serializable {
 	 *
 	 */
 	public Member search(String memberId) {
-		for (Iterator iterator = members.iterator(); iterator.hasNext();) {
-			Member member = (Member) iterator.next();
-			if (member.getId().equals(memberId)) {
-				return member;
+		if (memberId == null) {
+			return null;
+		}
+		LibraryStore current = store;
+		if (current != null) {
+			// goes through the store so that a member another thread is still
+			// loading is not seen half filled in
+			return current.loadMember(memberId);
+		}
+		return (Member) memberIndex.get(memberId);
+	}
+
+	/**
+	 * Returns the member at a given position in the list
+	 * 
+	 * @param sequenceNumber
+	 *            position of the member, starting at 1
+	 * @return the member, or null if there is no such position
+	 */
+	public Member getMember(int sequenceNumber) {
+		loadAll();
+		synchronized (this) {
+			if (sequenceNumber < 1 || sequenceNumber > memberPositions.size()) {
+				return null;
 			}
+			return (Member) memberPositions.get(sequenceNumber - 1);
+		}
+	}
+
+	/**
+	 * Returns a page of the members. Fetching a page takes time in proportion
+	 * to the size of the page, not to that of the list; members added in the
+	 * meantime only ever show up on later pages.
+	 * 
+	 * @param token
+	 *            the token of the page, from the page before it, or null for
+	 *            the first page
+	 * @param size
+	 *            the largest number of members on the page
+	 * @return the page, or null if the token is not valid
+	 */
+	public Page getPage(String token, int size) {
+		int next = Page.position(token, PAGE_TOKEN);
+		if (next < 0) {
+			return null;
+		}
+		loadAll();
+		List page = new ArrayList();
+		synchronized (this) {
+			int end = Math.min(memberPositions.size(), next + Math.max(0, size));
+			if (next < end) {
+				page.addAll(memberPositions.subList(next, end));
+			}
+			next = Math.max(next, end);
+			return new Page(page, next < memberPositions.size() ? Page.token(next, PAGE_TOKEN) : null);
 		}
-		return null;
 	}
 
 	public Iterator<Member> getIterator() {
-		Iterator<Member> iterator = members.iterator();
-		return iterator;
+		loadAll();
+		synchronized (this) {
+			Iterator<Member> iterator = new ArrayList<Member>(members).iterator();
+			return iterator;
+		}
 	}
 
 	/**
@@ -84,13 +146,124 @@ public class MemberList implements Serializable {
 	 * 
 	 * @param member
 	 *            the member to be inserted
-	 * @return true iff the member could be inserted. Currently always true
+	 * @return true iff the member could be inserted, false if a member with
+	 *         the same id is already in the list
 	 */
 	public boolean insertMember(Member member) {
-		members.add(member);
+		if (search(member.getId()) != null) {
+			return false;
+		}
+		insertLoaded(member);
 		return true;
 	}
 
+	/**
+	 * Inserts a batch of new members in one step. The members must have ids
+	 * that are not in use, such as ids from a block reserved with
+	 * MemberIdServer.reserve.
+	 * 
+	 * @param batch
+	 *            the members to be inserted
+	 */
+	public synchronized void insertMembers(List batch) {
+		((ArrayList) memberPositions).ensureCapacity(memberPositions.size() + batch.size());
+		for (Iterator iterator = batch.iterator(); iterator.hasNext();) {
+			insertLoaded((Member) iterator.next());
+		}
+	}
+
+	/**
+	 * Looks up a member among the members that are loaded, without going to
+	 * the store
+	 * 
+	 * @param memberId
+	 *            the id of the member
+	 * @return the member, or null if it is not loaded
+	 */
+	Member findLoaded(String memberId) {
+		return memberId == null ? null : (Member) memberIndex.get(memberId);
+	}
+
+	/**
+	 * Inserts a member without checking for a duplicate id. Used by the store
+	 * when it loads a member.
+	 * 
+	 * @param member
+	 *            the member to be inserted
+	 */
+	synchronized void insertLoaded(Member member) {
+		memberIndex.put(member.getId(), member);
+		memberPositions.add(member);
+		members.add(member);
+	}
+
+	/**
+	 * Inserts a member loaded from the store at the position it has there, so
+	 * that the list keeps the order it was saved in however the members are
+	 * loaded
+	 * 
+	 * @param member
+	 *            the member to be inserted
+	 * @param position
+	 *            the position of the member in the store
+	 */
+	synchronized void insertLoaded(Member member, int position) {
+		memberIndex.put(member.getId(), member);
+		memberPositions.set(position, member);
+		members.add(member);
+	}
+
+	/**
+	 * Makes the list load members from a store as they are asked for. The
+	 * first positions are kept for the members of the store.
+	 * 
+	 * @param store
+	 *            the store holding the members that are not loaded yet
+	 * @param count
+	 *            the number of members in the store
+	 */
+	synchronized void attach(LibraryStore store, int count) {
+		memberPositions.addAll(Collections.nCopies(count, null));
+		this.store = store;
+	}
+
+	/**
+	 * Returns the store members are still loaded from
+	 * 
+	 * @return the store, or null if every member is loaded
+	 */
+	LibraryStore store() {
+		return store;
+	}
+
+	/**
+	 * Returns the members by position. A position is empty if its member is
+	 * still in the store.
+	 * 
+	 * @return a copy of the positions
+	 */
+	synchronized List positions() {
+		return new ArrayList(memberPositions);
+	}
+
+	/**
+	 * Loads every member still in the store, then puts the member list in
+	 * order. Needed before the whole list is walked or indexed by position,
+	 * or all transactions are searched.
+	 */
+	void loadAll() {
+		LibraryStore loading = store;
+		if (loading != null) {
+			loading.loadAllMembers();
+			synchronized (this) {
+				if (store != null) {
+					store = null;
+					members = new LinkedList(memberPositions);
+				}
+			}
+		}
+	}
+
 	/*
 	 * Supports serialization
 	 * 
@@ -116,6 +289,7 @@ public class MemberList implements Serializable {
 				return;
 			} else {
 				input.defaultReadObject();
+				rebuildIndex();
 				if (memberList == null) {
 					memberList = (MemberList) input.readObject();
 				} else {
@@ -129,12 +303,66 @@ public class MemberList implements Serializable {
 		}
 	}
 
+	/*
+	 * Rebuilds the id and position indexes from the member list. The indexes
+	 * are not serialized.
+	 */
+	private void rebuildIndex() {
+		memberIndex = new ConcurrentHashMap();
+		memberPositions = new ArrayList(members);
+		for (Iterator iterator = members.iterator(); iterator.hasNext();) {
+			Member member = (Member) iterator.next();
+			memberIndex.put(member.getId(), member);
+		}
+	}
+
+	/**
+	 * Writes the string form of the collection to a writer. The members are
+	 * copied out of the list a chunk at a time, so neither the whole string
+	 * form nor the lock of the list is held while writing.
+	 * 
+	 * @param output
+	 *            the writer
+	 * @throws IOException
+	 *             if the writer fails
+	 */
+	public void dump(Writer output) throws IOException {
+		loadAll();
+		output.write('[');
+		List chunk = new ArrayList(Catalog.DUMP_CHUNK);
+		int next = 0;
+		while (true) {
+			chunk.clear();
+			synchronized (this) {
+				int end = Math.min(next + Catalog.DUMP_CHUNK, memberPositions.size());
+				chunk.addAll(memberPositions.subList(next, end));
+			}
+			if (chunk.isEmpty()) {
+				break;
+			}
+			for (Iterator iterator = chunk.iterator(); iterator.hasNext();) {
+				if (next > 0) {
+					output.write(", ");
+				}
+				next++;
+				((Member) iterator.next()).dump(output);
+			}
+		}
+		output.write(']');
+	}
+
 	/**
 	 * String form of the collection
 	 *
 	 */
 	@Override
 	public String toString() {
-		return members.toString();
+		StringWriter string = new StringWriter();
+		try {
+			dump(string);
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		}
+		return string.toString();
 	}
 }
\ No newline at end of file
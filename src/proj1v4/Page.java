@@ -0,0 +1,129 @@
+package src.proj1v4;
+
+/**
+ *
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.
+ */
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * One page of a listing of the catalog or the member list, together with the
+ * token for fetching the page after it. The token is to be passed back as it
+ * is; it marks a position in the collection rather than a page number, so
+ * books and members added while the listing is being paged through do not
+ * shift the pages that follow.
+ *
+ */
+public class Page {
+	private List items;
+	private String nextToken;
+
+	/**
+	 * Creates a page
+	 * 
+	 * @param items
+	 *            the books or members on the page
+	 * @param nextToken
+	 *            the token for the next page, or null if this is the last
+	 *            page
+	 */
+	Page(List items, String nextToken) {
+		this.items = Collections.unmodifiableList(items);
+		this.nextToken = nextToken;
+	}
+
+	/**
+	 * Returns an iterator to the books or members on the page
+	 * 
+	 * @return iterator to the page
+	 */
+	public Iterator getItems() {
+		return items.iterator();
+	}
+
+	/**
+	 * Returns the item at a given position on the page
+	 * 
+	 * @param sequenceNumber
+	 *            position on the page, starting at 1
+	 * @return the item, or null if there is no such position
+	 */
+	public Object getItem(int sequenceNumber) {
+		if (sequenceNumber < 1 || sequenceNumber > items.size()) {
+			return null;
+		}
+		return items.get(sequenceNumber - 1);
+	}
+
+	/**
+	 * Returns the number of items on the page
+	 * 
+	 * @return the number of items
+	 */
+	public int size() {
+		return items.size();
+	}
+
+	/**
+	 * Returns the token for fetching the next page
+	 * 
+	 * @return the token, or null if this is the last page
+	 */
+	public String getNextToken() {
+		return nextToken;
+	}
+
+	/**
+	 * Turns a token into the position it stands for
+	 * 
+	 * @param token
+	 *            the token, or null for the start of the collection
+	 * @param kind
+	 *            the letter starting the tokens of the collection
+	 * @return the position, or -1 if the token is not one of the collection
+	 */
+	static int position(String token, char kind) {
+		if (token == null) {
+			return 0;
+		}
+		if (token.length() < 2 || token.charAt(0) != kind) {
+			return -1;
+		}
+		try {
+			int position = Integer.parseInt(token.substring(1), Character.MAX_RADIX);
+			return position < 0 ? -1 : position;
+		} catch (NumberFormatException nfe) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Turns a position into a token
+	 * 
+	 * @param position
+	 *            the position
+	 * @param kind
+	 *            the letter starting the tokens of the collection
+	 * @return the token
+	 */
+	static String token(int position, char kind) {
+		return kind + Integer.toString(position, Character.MAX_RADIX);
+	}
+}
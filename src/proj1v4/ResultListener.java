@@ -0,0 +1,45 @@
+package src.proj1v4;
+
+/**
+ *
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.
+ */
+
+/**
+ * Receives the results of a bulk operation of the library one item at a
+ * time, as each becomes known, so that a large batch neither holds all its
+ * results in memory nor keeps the caller waiting for the last one.
+ * 
+ * Results may be reported while the library holds the locks of the batch, so
+ * the listener should be quick and must not call back into the library.
+ *
+ */
+public interface ResultListener {
+	/**
+	 * Reports the result of one item
+	 * 
+	 * @param index
+	 *            position of the item in the input, starting at 0
+	 * @param result
+	 *            the result code, as for the single-item operation
+	 * @param item
+	 *            the book or member the item concerns, or null if there is
+	 *            none
+	 */
+	void result(int index, int result, Object item);
+}
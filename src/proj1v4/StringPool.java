@@ -0,0 +1,157 @@
+package src.proj1v4;
+
+/**
+ *
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.
+ */
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps one instance of each distinct book title and author name, so that
+ * books by the same author or in the same series, and the transactions on
+ * them, share their strings instead of holding copies.
+ * 
+ * The pool holds its strings weakly: a title or author that no book or
+ * transaction uses any more, such as that of a removed book, is dropped by
+ * the garbage collector. The statistics cover the strings still pooled, and
+ * count a string as saved only when a distinct copy of it was replaced by the
+ * pooled instance; the pooled instance itself is not a saving.
+ *
+ */
+public class StringPool {
+	private Map strings = new WeakHashMap();
+	private static StringPool pool;
+
+	/*
+	 * A pooled string and the number of copies replaced by it. The string is
+	 * held weakly, as it is also the key.
+	 */
+	private static class Entry {
+		private WeakReference string;
+		private long copies;
+
+		private Entry(String string) {
+			this.string = new WeakReference(string);
+		}
+	}
+
+	/*
+	 * Private constructor for singleton pattern
+	 * 
+	 */
+	private StringPool() {
+	}
+
+	/**
+	 * Supports the singleton pattern
+	 * 
+	 * @return the singleton object
+	 */
+	public static synchronized StringPool instance() {
+		if (pool == null) {
+			return (pool = new StringPool());
+		} else {
+			return pool;
+		}
+	}
+
+	/**
+	 * Returns the pooled instance of a string, adding the string to the pool
+	 * if it is not there yet
+	 * 
+	 * @param string
+	 *            the string to be looked up; may be null
+	 * @return the pooled string equal to the given one
+	 */
+	public synchronized String intern(String string) {
+		if (string == null) {
+			return null;
+		}
+		Entry entry = (Entry) strings.get(string);
+		String pooled = entry == null ? null : (String) entry.string.get();
+		if (pooled == null) {
+			strings.put(string, new Entry(string));
+			return string;
+		}
+		if (pooled != string) {
+			entry.copies++;
+		}
+		return pooled;
+	}
+
+	/**
+	 * Returns the number of distinct strings in the pool
+	 * 
+	 * @return number of strings
+	 */
+	public synchronized int size() {
+		return strings.size();
+	}
+
+	/**
+	 * Returns the number of copies that were replaced by a string still in
+	 * the pool
+	 * 
+	 * @return number of copies
+	 */
+	public synchronized long getDuplicates() {
+		long duplicates = 0;
+		for (Iterator iterator = strings.values().iterator(); iterator.hasNext();) {
+			duplicates += ((Entry) iterator.next()).copies;
+		}
+		return duplicates;
+	}
+
+	/**
+	 * Returns an estimate of the heap saved by the copies replaced by strings
+	 * still in the pool
+	 * 
+	 * @return number of bytes
+	 */
+	public synchronized long getSavedBytes() {
+		long saved = 0;
+		for (Iterator iterator = strings.values().iterator(); iterator.hasNext();) {
+			Entry entry = (Entry) iterator.next();
+			String string = (String) entry.string.get();
+			if (string != null) {
+				saved += entry.copies * size(string);
+			}
+		}
+		return saved;
+	}
+	/*
+	 * Estimated size of a string: the String object and its character array,
+	 * with two bytes per character and 8 byte alignment
+	 */
+	private static long size(String string) {
+		return 24 + ((16 + 2L * string.length() + 7) & ~7L);
+	}
+
+	/**
+	 * String form of the pool statistics
+	 * 
+	 */
+	@Override
+	public String toString() {
+		return "Strings pooled " + size() + " copies shared " + getDuplicates() + " bytes saved about "
+				+ getSavedBytes();
+	}
+}
@@ -0,0 +1,282 @@
+package src.proj1v4;
+
+/**
+ *
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * An inverted index over the titles and authors of the books in the catalog.
+ * A title or author is split into words at every character that is not a
+ * letter or a digit, and the words are compared ignoring case. For each word
+ * the index keeps the ordinals of the books whose title contains it and,
+ * separately, of those whose author contains it. Ordinals are handed out in
+ * increasing order, so the lists are appended to and stay sorted.
+ * 
+ * A query is answered by walking the lists of its words side by side. A book
+ * scores for each word it contains, more for rarer words, and twice as much
+ * when the word is in the title as when it is in the author; the best scoring
+ * books are kept in a bounded heap.
+ *
+ */
+class TextIndex {
+	private static final int TITLE_WEIGHT = 2;
+	private static final int AUTHOR_WEIGHT = 1;
+	private Map titleWords = new HashMap();
+	private Map authorWords = new HashMap();
+	private int size;
+
+	/*
+	 * The ordinals of the books containing a word, in increasing order
+	 */
+	private static class Postings {
+		private int[] ordinals = new int[2];
+		private int size;
+
+		private void add(int ordinal) {
+			if (size > 0 && ordinals[size - 1] == ordinal) {
+				return;
+			}
+			if (size == ordinals.length) {
+				ordinals = Arrays.copyOf(ordinals, size * 2);
+			}
+			ordinals[size++] = ordinal;
+		}
+
+		private void remove(int ordinal) {
+			int position = Arrays.binarySearch(ordinals, 0, size, ordinal);
+			if (position >= 0) {
+				System.arraycopy(ordinals, position + 1, ordinals, position, size - position - 1);
+				size--;
+			}
+		}
+	}
+
+	/*
+	 * A book that matched a query and its score
+	 */
+	private static class Hit {
+		private int ordinal;
+		private double score;
+
+		private Hit(int ordinal, double score) {
+			this.ordinal = ordinal;
+			this.score = score;
+		}
+	}
+
+	/*
+	 * Orders hits from the worst to the best: lower score, and among equal
+	 * scores the later book
+	 */
+	private static final Comparator WORST_FIRST = new Comparator() {
+		public int compare(Object first, Object second) {
+			Hit one = (Hit) first;
+			Hit other = (Hit) second;
+			if (one.score != other.score) {
+				return one.score < other.score ? -1 : 1;
+			}
+			return other.ordinal - one.ordinal;
+		}
+	};
+
+	/**
+	 * Adds a book to the index. The book must have been given an ordinal
+	 * larger than that of any book added before.
+	 * 
+	 * @param book
+	 *            the book to be added
+	 */
+	synchronized void add(Book book) {
+		add(titleWords, book.getTitle(), book.getOrdinal());
+		add(authorWords, book.getAuthor(), book.getOrdinal());
+		size++;
+	}
+
+	/**
+	 * Removes a book from the index
+	 * 
+	 * @param book
+	 *            the book to be removed; it must still have its ordinal
+	 */
+	synchronized void remove(Book book) {
+		remove(titleWords, book.getTitle(), book.getOrdinal());
+		remove(authorWords, book.getAuthor(), book.getOrdinal());
+		size--;
+	}
+
+	/**
+	 * Finds the books whose title or author contains any of the words of a
+	 * query
+	 * 
+	 * @param query
+	 *            the words to look for
+	 * @param limit
+	 *            the largest number of books to be returned
+	 * @return the ordinals of the best matching books, best first
+	 */
+	synchronized int[] search(String query, int limit) {
+		List cursors = new ArrayList();
+		Set distinct = new LinkedHashSet(words(query));
+		for (Iterator iterator = distinct.iterator(); iterator.hasNext();) {
+			String word = (String) iterator.next();
+			Postings inTitle = (Postings) titleWords.get(word);
+			Postings inAuthor = (Postings) authorWords.get(word);
+			int found = (inTitle == null ? 0 : inTitle.size) + (inAuthor == null ? 0 : inAuthor.size);
+			if (found == 0) {
+				continue;
+			}
+			// a word found in few books says more about the book than one
+			// found in many
+			double rarity = Math.log(1 + (double) size / found);
+			if (inTitle != null && inTitle.size > 0) {
+				cursors.add(new Cursor(inTitle, TITLE_WEIGHT * rarity));
+			}
+			if (inAuthor != null && inAuthor.size > 0) {
+				cursors.add(new Cursor(inAuthor, AUTHOR_WEIGHT * rarity));
+			}
+		}
+		if (limit <= 0 || cursors.isEmpty()) {
+			return new int[0];
+		}
+		Cursor[] open = (Cursor[]) cursors.toArray(new Cursor[cursors.size()]);
+		PriorityQueue best = new PriorityQueue(Math.min(limit, 1024), WORST_FIRST);
+		while (true) {
+			int ordinal = Integer.MAX_VALUE;
+			for (int index = 0; index < open.length; index++) {
+				if (open[index].hasNext() && open[index].current() < ordinal) {
+					ordinal = open[index].current();
+				}
+			}
+			if (ordinal == Integer.MAX_VALUE) {
+				break;
+			}
+			double score = 0;
+			for (int index = 0; index < open.length; index++) {
+				if (open[index].hasNext() && open[index].current() == ordinal) {
+					score += open[index].weight;
+					open[index].advance();
+				}
+			}
+			if (best.size() < limit) {
+				best.add(new Hit(ordinal, score));
+			} else if (score > ((Hit) best.peek()).score) {
+				// an equal score does not displace an earlier book
+				best.poll();
+				best.add(new Hit(ordinal, score));
+			}
+		}
+		int[] ordinals = new int[best.size()];
+		for (int index = ordinals.length - 1; index >= 0; index--) {
+			ordinals[index] = ((Hit) best.poll()).ordinal;
+		}
+		return ordinals;
+	}
+
+	/*
+	 * Walks the ordinals of one list of postings
+	 */
+	private static class Cursor {
+		private Postings postings;
+		private double weight;
+		private int position;
+
+		private Cursor(Postings postings, double weight) {
+			this.postings = postings;
+			this.weight = weight;
+		}
+
+		private boolean hasNext() {
+			return position < postings.size;
+		}
+
+		private int current() {
+			return postings.ordinals[position];
+		}
+
+		private void advance() {
+			position++;
+		}
+	}
+
+	/*
+	 * Adds an ordinal to the postings of every word of a text
+	 */
+	private static void add(Map index, String text, int ordinal) {
+		for (Iterator iterator = words(text).iterator(); iterator.hasNext();) {
+			String word = (String) iterator.next();
+			Postings postings = (Postings) index.get(word);
+			if (postings == null) {
+				postings = new Postings();
+				index.put(word, postings);
+			}
+			postings.add(ordinal);
+		}
+	}
+
+	/*
+	 * Removes an ordinal from the postings of every word of a text
+	 */
+	private static void remove(Map index, String text, int ordinal) {
+		for (Iterator iterator = words(text).iterator(); iterator.hasNext();) {
+			String word = (String) iterator.next();
+			Postings postings = (Postings) index.get(word);
+			if (postings != null) {
+				postings.remove(ordinal);
+				if (postings.size == 0) {
+					index.remove(word);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Splits a text into lower case words
+	 * 
+	 * @param text
+	 *            the text, may be null
+	 * @return the words, in the order they appear
+	 */
+	static List words(String text) {
+		List words = new ArrayList();
+		if (text == null) {
+			return words;
+		}
+		int start = -1;
+		for (int index = 0; index <= text.length(); index++) {
+			boolean inWord = index < text.length() && Character.isLetterOrDigit(text.charAt(index));
+			if (inWord && start < 0) {
+				start = index;
+			} else if (!inWord && start >= 0) {
+				words.add(text.substring(start, index).toLowerCase());
+				start = -1;
+			}
+		}
+		return words;
+	}
+}
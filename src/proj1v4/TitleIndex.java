@@ -0,0 +1,191 @@
+package src.proj1v4;
+
+/**
+ *
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The books of the catalog sorted by title, ignoring case, for finding the
+ * books whose title starts with a given prefix. The books whose title starts
+ * with a prefix are next to each other in the sorted order, so they are found
+ * with a binary search and a walk that stops after as many books as are
+ * wanted.
+ * 
+ * The index is a plain array of books. New books go to an unsorted buffer
+ * first, which is sorted and merged into the array when it has grown to a
+ * fraction of the array, so that adding many books stays cheap. A lookup
+ * searches a small buffer as well, and merges a large one first. Removed books are
+ * skipped by lookups and dropped at the next merge. The index is guarded by
+ * the catalog; it has no locking of its own.
+ *
+ */
+class TitleIndex {
+	private static final int MIN_BUFFER = 4096;
+	private Book[] sorted = new Book[0];
+	private List added = new ArrayList();
+	private int removed;
+
+	/*
+	 * Orders books by title ignoring case; books with the same title stay in
+	 * catalog order
+	 */
+	private static final Comparator BY_TITLE = new Comparator() {
+		public int compare(Object first, Object second) {
+			Book one = (Book) first;
+			Book other = (Book) second;
+			int result = compareTitles(one.getTitle(), other.getTitle());
+			return result != 0 ? result : Integer.compare(one.getOrdinal(), other.getOrdinal());
+		}
+	};
+
+	/**
+	 * Adds a book to the index
+	 * 
+	 * @param book
+	 *            the book, which must already have its ordinal
+	 */
+	void add(Book book) {
+		added.add(book);
+		if (added.size() >= Math.max(MIN_BUFFER, sorted.length / 4)) {
+			merge();
+		}
+	}
+
+	/**
+	 * Notes that a book has been removed from the catalog. The book is
+	 * recognized by its ordinal having been cleared.
+	 */
+	void remove() {
+		removed++;
+	}
+
+	/**
+	 * Finds the books whose title starts with a prefix, ignoring case, in
+	 * title order
+	 * 
+	 * @param prefix
+	 *            the start of the title
+	 * @param status
+	 *            if not null, only books whose ordinal is set in it are
+	 *            returned
+	 * @param limit
+	 *            the largest number of books to be returned
+	 * @return the books
+	 */
+	List startingWith(String prefix, BitSet status, int limit) {
+		if (added.size() > MIN_BUFFER || removed > sorted.length / 4) {
+			merge();
+		}
+		List found = new ArrayList();
+		for (int index = firstNotBefore(prefix); index < sorted.length && found.size() < limit; index++) {
+			Book book = sorted[index];
+			if (book.getTitle() == null) {
+				continue;
+			}
+			if (!book.getTitle().regionMatches(true, 0, prefix, 0, prefix.length())) {
+				break;
+			}
+			if (matches(book, status)) {
+				found.add(book);
+			}
+		}
+		List recent = new ArrayList();
+		for (int index = 0; index < added.size(); index++) {
+			Book book = (Book) added.get(index);
+			if (book.getTitle() != null && book.getTitle().regionMatches(true, 0, prefix, 0, prefix.length())
+					&& matches(book, status)) {
+				recent.add(book);
+			}
+		}
+		if (recent.isEmpty()) {
+			return found;
+		}
+		found.addAll(recent);
+		Collections.sort(found, BY_TITLE);
+		return found.size() > limit ? new ArrayList(found.subList(0, limit)) : found;
+	}
+
+	/*
+	 * Checks that a book is still in the catalog and has the wanted status
+	 */
+	private static boolean matches(Book book, BitSet status) {
+		int ordinal = book.getOrdinal();
+		return ordinal >= 0 && (status == null || status.get(ordinal));
+	}
+
+	/*
+	 * Returns the position of the first book whose title is not before the
+	 * prefix
+	 */
+	private int firstNotBefore(String prefix) {
+		int low = 0;
+		int high = sorted.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (compareTitles(sorted[middle].getTitle(), prefix) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/*
+	 * Sorts the buffer and merges it into the array, dropping removed books
+	 */
+	private void merge() {
+		Book[] fresh = (Book[]) added.toArray(new Book[added.size()]);
+		Arrays.sort(fresh, BY_TITLE);
+		Book[] merged = new Book[sorted.length + fresh.length];
+		int size = 0;
+		int old = 0;
+		int next = 0;
+		while (old < sorted.length || next < fresh.length) {
+			Book book;
+			if (next == fresh.length || old < sorted.length && BY_TITLE.compare(sorted[old], fresh[next]) <= 0) {
+				book = sorted[old++];
+			} else {
+				book = fresh[next++];
+			}
+			if (book.getOrdinal() >= 0) {
+				merged[size++] = book;
+			}
+		}
+		sorted = size == merged.length ? merged : Arrays.copyOf(merged, size);
+		added.clear();
+		removed = 0;
+	}
+
+	/*
+	 * Compares titles ignoring case; a missing title comes first
+	 */
+	private static int compareTitles(String one, String other) {
+		if (one == null || other == null) {
+			return one == null ? (other == null ? 0 : -1) : 1;
+		}
+		return one.compareToIgnoreCase(other);
+	}
+}
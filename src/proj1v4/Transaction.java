@@ -20,6 +20,10 @@ package src.proj1v4;
  */
 import java.util.*;
 import java.io.*;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
 /**
  * Represents a single Transaction (issue, renew, etc.)
  * 
@@ -28,9 +32,21 @@ import java.io.*;
  */
 public class Transaction implements Serializable {
   private static final long serialVersionUID = 1L;
+  /*
+   * The date is kept in milliseconds but written as the Calendar it used to
+   * be, so saved libraries stay readable
+   */
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("type", String.class),
+    new ObjectStreamField("title", String.class),
+    new ObjectStreamField("date", Calendar.class),
+    new ObjectStreamField("bookId", String.class)
+  };
   private String type;
   private String title;
-  private Calendar date;
+  private long time;
+  private String bookId;
+  private String memberId;
   /**
    * Creates the transaction with a given type and book title.
    * The date is the current date.
@@ -40,9 +56,33 @@ public class Transaction implements Serializable {
    */
   public Transaction (String type, String title) {
     this.type = type;
-    this.title = title;
-    date = new GregorianCalendar();
-    date.setTimeInMillis(System.currentTimeMillis());
+    this.title = StringPool.instance().intern(title);
+    time = Library.currentTime();
+  }
+  /**
+   * Recreates a transaction that happened at a known time
+   * @param type The type of transaction
+   * @param title The title of the book
+   * @param time The time of the transaction in milliseconds
+   */
+  Transaction (String type, String title, long time) {
+    this.type = type;
+    this.title = StringPool.instance().intern(title);
+    this.time = time;
+  }
+  /**
+   * Recreates a transaction that happened at a known time, with the book and
+   * member involved
+   * @param type The type of transaction
+   * @param title The title of the book
+   * @param bookId The id of the book, or null if not known
+   * @param memberId The id of the member, or null if not known
+   * @param time The time of the transaction in milliseconds
+   */
+  Transaction (String type, String title, String bookId, String memberId, long time) {
+    this(type, title, time);
+    this.bookId = bookId;
+    this.memberId = memberId;
   }
   /**
    * Checks whether this transaction is on the given date
@@ -51,9 +91,34 @@ public class Transaction implements Serializable {
    * @return true iff the dates match
    */
   public boolean onDate(Calendar date) {
-    return ((date.get(Calendar.YEAR) == this.date.get(Calendar.YEAR)) &&
-            (date.get(Calendar.MONTH) == this.date.get(Calendar.MONTH)) &&
-            (date.get(Calendar.DATE) == this.date.get(Calendar.DATE)));
+    return epochDay(date) == getEpochDay();
+  }
+  /**
+   * Returns the date of the transaction as a number of days since the epoch
+   * @return the day of the transaction
+   */
+  int getEpochDay() {
+    return epochDay(time);
+  }
+  /**
+   * Converts a time to the number of the day it falls on, counted from the
+   * epoch in the default time zone
+   * @param time the time in milliseconds
+   * @return the day of the time
+   */
+  static int epochDay(long time) {
+    return (int) Instant.ofEpochMilli(time).atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+  }
+  /**
+   * Converts the date of a calendar to a number of days since the epoch.
+   * Two calendars convert to the same day exactly when onDate would match
+   * them.
+   * @param date the date to be converted
+   * @return the day of the date
+   */
+  static int epochDay(Calendar date) {
+    return (int) LocalDate.of(date.get(Calendar.YEAR), date.get(Calendar.MONTH) + 1,
+        date.get(Calendar.DATE)).toEpochDay();
   }
   /**
    * Returns the type field
@@ -69,12 +134,66 @@ public class Transaction implements Serializable {
   public String getTitle() {
     return title;
   }
+  /**
+   * Returns the id of the copy of the book involved
+   * @return book id, or null if the transaction was saved without it
+   */
+  public String getBookId() {
+    return bookId;
+  }
+  /**
+   * Returns the id of the member involved
+   * @return member id, or null if not known
+   */
+  public String getMemberId() {
+    return memberId;
+  }
+  /**
+   * Returns the time of the transaction
+   * @return time in milliseconds
+   */
+  long getTime() {
+    return time;
+  }
   /**
    * Returns the date as a String
    * @return date with month, date, and year
    */
   public String getDate() {
-    return date.get(Calendar.MONTH) + "/" + date.get(Calendar.DATE) + "/" + date.get(Calendar.YEAR);
+    ZonedDateTime date = dateTime();
+    return (date.getMonthValue() - 1) + "/" + date.getDayOfMonth() + "/" + date.getYear();
+  }
+  /*
+   * The time of the transaction in the default time zone
+   */
+  private ZonedDateTime dateTime() {
+    return Instant.ofEpochMilli(time).atZone(ZoneId.systemDefault());
+  }
+  /*
+   * Supports serialization
+   * @param output the stream to be written to
+   */
+  private void writeObject(ObjectOutputStream output) throws IOException {
+    ObjectOutputStream.PutField fields = output.putFields();
+    fields.put("type", type);
+    fields.put("title", title);
+    Calendar date = new GregorianCalendar();
+    date.setTimeInMillis(time);
+    fields.put("date", date);
+    fields.put("bookId", bookId);
+    output.writeFields();
+  }
+  /*
+   * Supports serialization
+   * @param input the stream to be read from
+   */
+  private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = input.readFields();
+    type = (String) fields.get("type", null);
+    title = StringPool.instance().intern((String) fields.get("title", null));
+    Calendar date = (Calendar) fields.get("date", null);
+    time = date == null ? 0 : date.getTimeInMillis();
+    bookId = (String) fields.get("bookId", null);
   }
   /**
    * String form of the transaction
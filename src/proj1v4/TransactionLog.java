@@ -0,0 +1,119 @@
+package src.proj1v4;
+
+/**
+ *
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.
+ */
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * The transactions of one member, kept sorted by day. Each entry is the row
+ * of the transaction in the TransactionStore together with the day it
+ * happened on, counted from the epoch, so looking up the transactions of a
+ * date is a binary search for a contiguous range and does not look at the
+ * transactions themselves. Transactions nearly always arrive in date order
+ * and are simply appended.
+ *
+ */
+class TransactionLog {
+	private int[] rows = new int[8];
+	private int[] days = new int[8];
+	private int size;
+
+	/**
+	 * Adds a transaction after all transactions of the same or an earlier
+	 * day
+	 * 
+	 * @param row
+	 *            the row of the transaction in the TransactionStore
+	 */
+	void add(int row) {
+		int day = Transaction.epochDay(TransactionStore.instance().getTime(row));
+		if (size == rows.length) {
+			rows = Arrays.copyOf(rows, size * 2);
+			days = Arrays.copyOf(days, size * 2);
+		}
+		int position = size == 0 || days[size - 1] <= day ? size : firstAfter(day);
+		System.arraycopy(rows, position, rows, position + 1, size - position);
+		System.arraycopy(days, position, days, position + 1, size - position);
+		rows[position] = row;
+		days[position] = day;
+		size++;
+	}
+	/**
+	 * Returns the transactions of a given date
+	 * 
+	 * @param date
+	 *            the date for which transactions are being sought
+	 * @return the transactions, in the order they were added
+	 */
+	List onDate(Calendar date) {
+		int day = Transaction.epochDay(date);
+		return range(firstAfter(day - 1), firstAfter(day));
+	}
+
+	/**
+	 * Returns all transactions
+	 * 
+	 * @return the transactions, by date
+	 */
+	List all() {
+		return range(0, size);
+	}
+
+	/**
+	 * Returns the number of transactions
+	 * 
+	 * @return number of transactions
+	 */
+	int size() {
+		return size;
+	}
+
+	/*
+	 * Position of the first transaction on a day later than the given one
+	 */
+	private int firstAfter(int day) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (days[middle] <= day) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Creates the transactions between two positions, in date order
+	 * 
+	 * @param from
+	 *            the position of the first transaction
+	 * @param to
+	 *            the position after the last transaction
+	 * @return the transactions
+	 */
+	List range(int from, int to) {
+		return TransactionStore.instance().get(rows, from, to);
+	}
+}
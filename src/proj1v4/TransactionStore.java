@@ -0,0 +1,255 @@
+package src.proj1v4;
+
+/**
+ *
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.
+ */
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the transactions of all members in columns: the type as a byte, the
+ * book title, the book id and the member id as ints into dictionaries, and
+ * the time as a long. The dictionaries hold ids rather than the books and
+ * members themselves, so the store keeps no member or book alive. A member
+ * keeps only the row numbers of its own transactions. Transaction objects are
+ * created when transactions are asked for, and carry the book and member
+ * ids. Questions about the whole library, such as all issues of a day or all
+ * activity on a title, are answered by a scan over the columns.
+ * 
+ * The store is not serialized; it is filled again as the members are read.
+ *
+ */
+public class TransactionStore {
+	private List typeNames = new ArrayList();
+	private Map typeCodes = new HashMap();
+	private List titleNames = new ArrayList();
+	private Map titleCodes = new HashMap();
+	private List bookIds = new ArrayList();
+	private Map bookCodes = new HashMap();
+	private List memberIds = new ArrayList();
+	private Map memberCodes = new HashMap();
+	private byte[] types = new byte[1024];
+	private int[] titles = new int[1024];
+	private int[] books = new int[1024];
+	private int[] members = new int[1024];
+	private long[] times = new long[1024];
+	private int size;
+	private static TransactionStore transactionStore;
+
+	/*
+	 * Private constructor for singleton pattern
+	 * 
+	 */
+	private TransactionStore() {
+	}
+
+	/**
+	 * Supports the singleton pattern
+	 * 
+	 * @return the singleton object
+	 */
+	public static synchronized TransactionStore instance() {
+		if (transactionStore == null) {
+			return (transactionStore = new TransactionStore());
+		} else {
+			return transactionStore;
+		}
+	}
+
+	/**
+	 * Appends a transaction
+	 * 
+	 * @param type
+	 *            the type of transaction
+	 * @param title
+	 *            the title of the book
+	 * @param bookId
+	 *            the id of the book, or null if not known
+	 * @param memberId
+	 *            the id of the member the transaction belongs to
+	 * @param time
+	 *            the time of the transaction in milliseconds
+	 * @return the row of the transaction
+	 */
+	synchronized int append(String type, String title, String bookId, String memberId, long time) {
+		if (size == times.length) {
+			types = Arrays.copyOf(types, size * 2);
+			titles = Arrays.copyOf(titles, size * 2);
+			books = Arrays.copyOf(books, size * 2);
+			members = Arrays.copyOf(members, size * 2);
+			times = Arrays.copyOf(times, size * 2);
+		}
+		int typeCode = code(typeNames, typeCodes, type);
+		if (typeCode > Byte.MAX_VALUE) {
+			throw new IllegalStateException("Too many transaction types");
+		}
+		types[size] = (byte) typeCode;
+		titles[size] = code(titleNames, titleCodes, title);
+		books[size] = code(bookIds, bookCodes, bookId);
+		members[size] = code(memberIds, memberCodes, memberId);
+		times[size] = time;
+		return size++;
+	}
+
+	/**
+	 * Drops all transactions. Only safe while no member refers to a row; see
+	 * Library.forgetTransactions.
+	 */
+	synchronized void clear() {
+		typeNames.clear();
+		typeCodes.clear();
+		titleNames.clear();
+		titleCodes.clear();
+		bookIds.clear();
+		bookCodes.clear();
+		memberIds.clear();
+		memberCodes.clear();
+		types = new byte[1024];
+		titles = new int[1024];
+		books = new int[1024];
+		members = new int[1024];
+		times = new long[1024];
+		size = 0;
+	}
+
+	/**
+	 * Returns the time of a transaction
+	 * 
+	 * @param row
+	 *            the row of the transaction
+	 * @return time in milliseconds
+	 */
+	synchronized long getTime(int row) {
+		return times[row];
+	}
+
+	/**
+	 * Creates the transactions of some rows
+	 * 
+	 * @param rows
+	 *            array holding the rows
+	 * @param from
+	 *            position of the first row in the array
+	 * @param to
+	 *            position after the last row
+	 * @return the transactions
+	 */
+	synchronized List get(int[] rows, int from, int to) {
+		List result = new ArrayList(to - from);
+		for (int index = from; index < to; index++) {
+			result.add(transaction(rows[index]));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of transactions in the library
+	 * 
+	 * @return number of transactions
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the transactions of a given type on a given date, for all
+	 * members
+	 * 
+	 * @param type
+	 *            the type of transaction, or null for all types
+	 * @param date
+	 *            the date for which transactions are being sought
+	 * @return iterator over the transactions
+	 */
+	public Iterator getTransactions(String type, Calendar date) {
+		MemberList.instance().loadAll();
+		LocalDate day = LocalDate.ofEpochDay(Transaction.epochDay(date));
+		long start = day.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		long end = day.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		synchronized (this) {
+			int typeCode = -1;
+			if (type != null) {
+				Integer code = (Integer) typeCodes.get(type);
+				if (code == null) {
+					return new ArrayList().iterator();
+				}
+				typeCode = code.intValue();
+			}
+			List result = new ArrayList();
+			for (int row = 0; row < size; row++) {
+				if (times[row] >= start && times[row] < end && (typeCode < 0 || types[row] == typeCode)) {
+					result.add(transaction(row));
+				}
+			}
+			return result.iterator();
+		}
+	}
+
+	/**
+	 * Returns all transactions on books with a given title, for all members
+	 * 
+	 * @param title
+	 *            the title of the book
+	 * @return iterator over the transactions
+	 */
+	public Iterator getTransactions(String title) {
+		MemberList.instance().loadAll();
+		synchronized (this) {
+			List result = new ArrayList();
+			Integer code = (Integer) titleCodes.get(title);
+			if (code != null) {
+				int titleCode = code.intValue();
+				for (int row = 0; row < size; row++) {
+					if (titles[row] == titleCode) {
+						result.add(transaction(row));
+					}
+				}
+			}
+			return result.iterator();
+		}
+	}
+
+	/*
+	 * Creates the transaction of a row
+	 */
+	private Transaction transaction(int row) {
+		return new Transaction((String) typeNames.get(types[row]), (String) titleNames.get(titles[row]),
+				(String) bookIds.get(books[row]), (String) memberIds.get(members[row]), times[row]);
+	}
+
+	/*
+	 * Looks up a string in a dictionary, adding it if it is new
+	 */
+	private static int code(List values, Map codes, String key) {
+		Integer code = (Integer) codes.get(key);
+		if (code == null) {
+			code = Integer.valueOf(values.size());
+			codes.put(key, code);
+			values.add(key);
+		}
+		return code.intValue();
+	}
+}
@@ -20,6 +20,7 @@ package src.proj1v4;
  */
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.text.DateFormat;
@@ -27,6 +28,7 @@ import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.Iterator;
+import java.util.List;
 import java.util.StringTokenizer;
 
 /**
@@ -53,7 +55,17 @@ public class UserInterface {
 	private static final int GET_TRANSACTIONS = 10;
 	private static final int SAVE = 11;
 	private static final int RETRIEVE = 12;
-	private static final int HELP = 13;
+	private static final int IMPORT_BOOKS = 13;
+	private static final int FIND_BOOKS = 14;
+	private static final int HELP = 15;
+	private static final int FOUND_BOOKS_SHOWN = 20;
+	private static final int TITLES_SHOWN = 20;
+	private static final String ANY_TITLE = "*";
+	private static final int PAGE_SIZE = 20;
+	private static final int MEMBER_PAGES = 0;
+	private static final int CHECKED_OUT_PAGES = 1;
+	private static final int REMOVABLE_PAGES = 2;
+	private static final int HAS_HOLD_PAGES = 3;
 
 	/**
 	 * Made private for singleton pattern. Conditionally looks for any saved
@@ -184,7 +196,7 @@ public class UserInterface {
 	 *
 	 */
 	public void help() {
-		System.out.println("Enter a number between 0 and 12 as explained below:");
+		System.out.println("Enter a number between " + EXIT + " and " + HELP + " as explained below:");
 		System.out.println(EXIT + " to Exit\n");
 		System.out.println(ADD_MEMBER + " to add a member");
 		System.out.println(ADD_BOOKS + " to  add books");
@@ -198,6 +210,8 @@ public class UserInterface {
 		System.out.println(GET_TRANSACTIONS + " to  print transactions");
 		System.out.println(SAVE + " to  save data");
 		System.out.println(RETRIEVE + " to  retrieve");
+		System.out.println(IMPORT_BOOKS + " to  import books from a CSV or TSV file");
+		System.out.println(FIND_BOOKS + " to  find books by title or author");
 		System.out.println(HELP + " for help");
 	}
 
@@ -243,6 +257,42 @@ public class UserInterface {
 		} while (true);
 	}
 
+	/**
+	 * Method to be called for importing books from a file. Prompts the user
+	 * for the file name and reports the rows that could not be added.
+	 *
+	 */
+	public void importBooks() {
+		String fileName = getToken("Enter file name (title, author, id on each line)");
+		BookImport result = library.importBooks(fileName);
+		if (result == null) {
+			System.out.println("File could not be read");
+			return;
+		}
+		for (Iterator rejects = result.getRejects(); rejects.hasNext();) {
+			System.out.println(rejects.next());
+		}
+		System.out.println(result);
+	}
+
+	/**
+	 * Method to be called for finding books. Prompts the user for words of the
+	 * title or author and lists the best matching books.
+	 *
+	 */
+	public void findBooks() {
+		String query = getToken("Enter words of the title or author");
+		Iterator books = library.findBooks(query, FOUND_BOOKS_SHOWN);
+		if (!books.hasNext()) {
+			System.out.println("No books found");
+			return;
+		}
+		while (books.hasNext()) {
+			Book book = (Book) books.next();
+			System.out.println(book.getId() + "   " + book.getTitle() + "   " + book.getAuthor());
+		}
+	}
+
 	/**
 	 * Method to be called for issuing books. Prompts the user for the
 	 * appropriate values and uses the appropriate Library method for issuing
@@ -483,7 +533,7 @@ public class UserInterface {
 
 			result = library.processHold(bookID);
 			if (result != null) {
-				System.out.println(result);
+				System.out.println(result.getSummary());
 			} else {
 				System.out.println("No valid holds left");
 			}
@@ -519,11 +569,12 @@ public class UserInterface {
 
 	/**
 	 * Method to be called for saving the Library object. Uses the appropriate
-	 * Library method for saving.
+	 * Library method for saving, then takes a snapshot and journals every
+	 * further change.
 	 *
 	 */
 	private void save() {
-		if (library.save()) {
+		if (library.save() && library.startJournal()) {
 			System.out.println(" The library has been successfully saved in the file LibraryData \n");
 		} else {
 			System.out.println(" There has been an error in saving \n");
@@ -531,16 +582,26 @@ public class UserInterface {
 	}
 
 	/**
-	 * Method to be called for retrieving saved data. Uses the appropriate
-	 * Library method for retrieval.
+	 * Method to be called for retrieving saved data. Uses the snapshot and
+	 * journal if there are any, otherwise the LibraryData file. Journaling
+	 * starts once the data has been retrieved.
 	 *
 	 */
 	private void retrieve() {
 		try {
-			Library tempLibrary = Library.retrieve();
+			Library tempLibrary;
+			String fileName;
+			if (new File(LibrarySnapshot.SNAPSHOT_FILE).exists() || new File(LibraryJournal.JOURNAL_FILE).exists()) {
+				tempLibrary = Library.recover();
+				fileName = LibrarySnapshot.SNAPSHOT_FILE;
+			} else {
+				tempLibrary = Library.retrieve();
+				fileName = "LibraryData";
+			}
 			if (tempLibrary != null) {
-				System.out.println(" The library has been successfully retrieved from the file LibraryData \n");
+				System.out.println(" The library has been successfully retrieved from the file " + fileName + " \n");
 				library = tempLibrary;
+				library.startJournal();
 			} else {
 				System.out.println("File doesnt exist; creating new library");
 				library = Library.instance();
@@ -596,6 +657,12 @@ public class UserInterface {
 			case RETRIEVE:
 				retrieve();
 				break;
+			case IMPORT_BOOKS:
+				importBooks();
+				break;
+			case FIND_BOOKS:
+				findBooks();
+				break;
 			case HELP:
 				help();
 				break;
@@ -604,91 +671,48 @@ public class UserInterface {
 	}
 
 	/**
-	 * Method to print a list of all members, generates sequence numbers Accepts
-	 * the sequence number entered by the user Returns a string with the
-	 * memberID
+	 * Method to print a list of all members a page at a time, generates
+	 * sequence numbers Accepts the sequence number entered by the user Returns
+	 * a string with the memberID
 	 * 
 	 * @return
 	 */
 	public String sequenceMemberList() {
-		int i = 1;
-
-		Iterator members = Library.instance().serveIterator();
-		for (; members.hasNext();) {
-
-			System.out.println("   " + i++ + ".   " + members.next().toString());
-
-		}
-		String sequenceNumber = getToken("Enter Sequence Number: ");
-		int checkedNumber = sequenceNumberCheck(sequenceNumber, i);
-
-		if (checkedNumber != -1) {
-			String memberID = library.getMemberId(checkedNumber);
-			return memberID;
-
-		} else {
+		Member member = (Member) sequencePages(MEMBER_PAGES);
+		if (member == null) {
 			return "exit";
 		}
+		return member.getId();
 	}
 
 	/**
-	 * Method to print a list of all books in the catalog that are checked out,
-	 * generates sequence numbers Accepts the sequence number entered by the
+	 * Method to print a list of all books in the catalog that are checked out a
+	 * page at a time, generates sequence numbers Accepts the sequence number entered by the
 	 * user Returns a string with the bookID
 	 * 
 	 * @return
 	 */
 
 	public String sequenceCheckedOutList() {
-		int i = 1;
-
-		Iterator books = Catalog.instance().checkedOutList();
-		for (; books.hasNext();) {
-			Book localBook = ((Book) books.next());
-
-			System.out.println("   " + i++ + ".   " + localBook.toString());
-		}
-		String sequenceNumber = getToken("Enter Sequence Number: ");
-		int checkedNumber = sequenceNumberCheck(sequenceNumber, i);
-
-		if (checkedNumber != -1) {
-			String bookID = Catalog.getBookId(checkedNumber, Catalog.instance().checkedOutList());
-
-			return bookID;
-		} else {
+		Book book = (Book) sequencePages(CHECKED_OUT_PAGES);
+		if (book == null) {
 			return "exit";
 		}
+		return book.getId();
 	}
 
 	/**
-	 * Method to print a list of all books in the catalog that are not checked
-	 * out, generates sequence numbers Accepts the sequence number entered by
-	 * the user Returns a string with the bookID
+	 * Method to select a book in the catalog that is not checked out. The
+	 * user narrows the books down by typing the start of the title, and picks
+	 * one of the books shown by its sequence number. Returns a string with the
+	 * bookID
 	 * 
 	 * @return
 	 */
 
 	public String sequenceNotCheckedOutList() {
-		int i = 1;
-
-		Iterator books = Catalog.instance().notCheckedOutList();
-		for (; books.hasNext();) {
-			Book localBook = ((Book) books.next());
-
-			System.out.println("   " + i++ + ".   " + localBook.toString());
-		}
-
-		String sequenceNumber = getToken("Enter Sequence Number: ");
-		int checkedNumber = sequenceNumberCheck(sequenceNumber, i);
-
-		if (checkedNumber != -1) {
-			String bookID = Catalog.getBookId(checkedNumber, Catalog.instance().notCheckedOutList());
-
-			return bookID;
-		} else {
-			return "exit";
-		}
-
+		String bookID = sequenceTitleList(true);
+		return bookID == null ? "exit" : bookID;
 	}
 
 	/**
@@ -702,20 +726,17 @@ public class UserInterface {
 	public String sequenceMemberCheckedOutList(String memberID) {
 
 		// Iterator books = Library.instance().getBooks(memberID);
-		Iterator books = Library.instance().getMemberIssued(memberID);
+		List books = Catalog.snapshot(Library.instance().getMemberIssued(memberID));
 		int i = 1;
-		for (; books.hasNext();) {
-			Book localBook = ((Book) books.next());
+		for (Iterator iterator = books.iterator(); iterator.hasNext();) {
+			Book localBook = ((Book) iterator.next());
 
 			System.out.println("   " + i++ + ".   " + localBook.toString());
 		}
 
 		String sequenceNumber = getToken("Enter Sequence Number: ");
 		int checkedNumber = sequenceNumberCheck(sequenceNumber, i);
-		Iterator books1 = Library.instance().getMemberIssued(memberID);
-		String bookID = Catalog.getBookId(checkedNumber, books1);
-		// String bookID = Catalog.getBookId(sequenceNumberCheck(sequenceNumber,
-		// i), Catalog.instance().checkedOutList());
+		String bookID = Catalog.getBookId(checkedNumber, books);
 
 		return bookID;
 
@@ -732,18 +753,17 @@ public class UserInterface {
 	public String sequenceMemberHoldList(String memberID) {
 		int i = 1;
 
-		Iterator holds = Library.instance().getMemberHolds(memberID);
-		if (holds.hasNext()) {
-			for (; holds.hasNext();) {
-				Book localHold = ((Book) holds.next());
+		List holds = Catalog.snapshot(Library.instance().getMemberHolds(memberID));
+		if (!holds.isEmpty()) {
+			for (Iterator iterator = holds.iterator(); iterator.hasNext();) {
+				Book localHold = ((Book) iterator.next());
 
 				System.out.println("   " + i++ + ".   " + localHold.toString());
 			}
 			String sequenceNumber = getToken("Enter Sequence Number: ");
 			int checkedNumber = sequenceNumberCheck(sequenceNumber, i);
 			System.out.println(checkedNumber);
-			Iterator holds1 = Library.instance().getMemberHolds(memberID);
-			String bookID = Catalog.getBookId(checkedNumber, holds1);
+			String bookID = Catalog.getBookId(checkedNumber, holds);
 
 			return bookID;
 		} else {
@@ -754,79 +774,134 @@ public class UserInterface {
 
 	/**
 	 * Method to print a list of all books in the catalog that are not checked
-	 * out or on hold, generates sequence numbers Accepts the sequence number
-	 * entered by the user Returns a string with the bookID
+	 * out or on hold a page at a time, generates sequence numbers Accepts the
+	 * sequence number entered by the user Returns a string with the bookID
 	 * 
 	 * @return
 	 */
 	public String sequenceRemovableList() {
-		int i = 1;
-
-		Iterator books = Catalog.instance().removableList();
-		for (; books.hasNext();) {
-			Book localBook = ((Book) books.next());
-
-			System.out.println("   " + i++ + ".   " + localBook.toString());
-		}
-
-		String sequenceNumber = getToken("Enter Sequence Number: ");
-		int checkedNumber = sequenceNumberCheck(sequenceNumber, i);
-		String bookID = Catalog.getBookId(checkedNumber, Catalog.instance().removableList());
-
-		return bookID;
-
+		Book book = (Book) sequencePages(REMOVABLE_PAGES);
+		return book == null ? null : book.getId();
 	}
 
 	/**
-	 * Method to print a list of all books on hold in the catalog, generates
-	 * sequence numbers Accepts the sequence number entered by the user Returns
+	 * Method to print a list of all books on hold in the catalog a page at a
+	 * time, generates sequence numbers Accepts the sequence number entered by the user Returns
 	 * a string with the bookID
 	 * 
 	 * @return
 	 */
 	public String sequenceHasHoldList() {
-		int i = 1;
+		Book book = (Book) sequencePages(HAS_HOLD_PAGES);
+		return book == null ? null : book.getId();
+	}
 
-		Iterator holdBooks = Catalog.instance().hasHoldList();
-		if (holdBooks.hasNext()) {
-			for (; holdBooks.hasNext();) {
-				Book localBook = ((Book) holdBooks.next());
+	/*
+	 * Fetches a page of one of the listings
+	 */
+	private Page getPage(int listing, String token) {
+		switch (listing) {
+		case MEMBER_PAGES:
+			return MemberList.instance().getPage(token, PAGE_SIZE);
+		case CHECKED_OUT_PAGES:
+			return Catalog.instance().checkedOutPage(token, PAGE_SIZE);
+		case REMOVABLE_PAGES:
+			return Catalog.instance().removablePage(token, PAGE_SIZE);
+		default:
+			return Catalog.instance().hasHoldPage(token, PAGE_SIZE);
+		}
+	}
 
-				System.out.println("   " + i++ + ".   " + localBook.toString());
+	/*
+	 * Shows a listing PAGE_SIZE entries at a time, until the user picks an
+	 * entry by its sequence number on the page. Returns the entry, or null if
+	 * the listing is empty or the user enters -1.
+	 */
+	private Object sequencePages(int listing) {
+		String token = null;
+		while (true) {
+			Page page = getPage(listing, token);
+			if (page.size() == 0) {
+				if (token == null) {
+					return null;
+				}
+				// the entries after the last page shown went away meanwhile
+				token = null;
+				continue;
 			}
-			String sequenceNumber = getToken("Enter Sequence Number: ");
+			int i = 1;
+			for (Iterator iterator = page.getItems(); iterator.hasNext();) {
+				Object item = iterator.next();
+				String line = item instanceof Member ? ((Member) item).getSummary() : item.toString();
+				System.out.println("   " + i++ + ".   " + line);
+			}
+			String sequenceNumber = getToken(page.getNextToken() == null
+					? "Enter Sequence Number, 0 to start over: " : "Enter Sequence Number, 0 for more: ");
 			int checkedNumber = sequenceNumberCheck(sequenceNumber, i);
-			String bookID = Catalog.getBookId(checkedNumber, Catalog.instance().hasHoldList());
-
-			return bookID;
-		} else {
-			return null;
+			if (checkedNumber == -1) {
+				return null;
+			}
+			if (checkedNumber > 0) {
+				return page.getItem(checkedNumber);
+			}
+			if (sequenceNumber.trim().equals("0")) {
+				token = page.getNextToken();
+			}
 		}
 	}
 
 	/**
-	 * Method to print a list of all books in the catalog, generates sequence
-	 * numbers Accepts the sequence number entered by the user Returns a string
-	 * with the bookID
+	 * Method to select a book in the catalog. The user narrows the books down
+	 * by typing the start of the title, and picks one of the books shown by
+	 * its sequence number. Returns a string with the bookID
 	 * 
 	 * @return
 	 */
 	public String sequenceAllBooksList() {
-		int i = 1;
-
-		Iterator books = Catalog.instance().serveIterator();
-		for (; books.hasNext();) {
+		return sequenceTitleList(false);
+	}
 
-			System.out.println("   " + i++ + ".   " + books.next().toString());
+	/*
+	 * Prompts for the start of a title and lists the first TITLES_SHOWN books
+	 * whose title starts with it, until the user picks one of them by its
+	 * sequence number. Returns the book id, or null if the user gives up.
+	 */
+	private String sequenceTitleList(boolean notCheckedOut) {
+		while (true) {
+			String prefix = getToken("Enter the start of the title, " + ANY_TITLE + " for any title, -1 to exit");
+			if (prefix.equals("-1")) {
+				return null;
+			}
+			if (prefix.equals(ANY_TITLE)) {
+				prefix = "";
+			}
+			Iterator found = notCheckedOut ? Catalog.instance().notCheckedOutStartingWith(prefix, TITLES_SHOWN + 1)
+					: Catalog.instance().startingWith(prefix, TITLES_SHOWN + 1);
+			List books = Catalog.snapshot(found);
+			if (books.isEmpty()) {
+				System.out.println("No books found");
+				continue;
+			}
+			boolean more = books.size() > TITLES_SHOWN;
+			if (more) {
+				books.remove(TITLES_SHOWN);
+			}
+			int i = 1;
+			for (Iterator iterator = books.iterator(); iterator.hasNext();) {
+				System.out.println("   " + i++ + ".   " + iterator.next().toString());
+			}
+			if (more) {
+				System.out.println("More titles start with that; type more of the title to see them");
+			}
+			String sequenceNumber = getToken("Enter Sequence Number, 0 to type another title: ");
+			int checkedNumber = sequenceNumberCheck(sequenceNumber, i);
+			if (checkedNumber == -1) {
+				return null;
+			}
+			if (checkedNumber > 0) {
+				return Catalog.getBookId(checkedNumber, books);
+			}
 		}
-
-		String sequenceNumber = getToken("Enter Sequence Number: ");
-		int checkedNumber = sequenceNumberCheck(sequenceNumber, i);
-
-		String bookID = Catalog.getBookId(checkedNumber);
-
-		return bookID;
-
 	}
 
 	public void sequenceMemberTransList(String memberID) {